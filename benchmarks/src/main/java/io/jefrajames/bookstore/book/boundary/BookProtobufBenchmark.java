@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.boundary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.jefrajames.bookstore.book.entity.Book;
+import io.jefrajames.bookstore.book.entity.BookJsonbBenchmark;
+
+/**
+ * Protobuf mapping of books, as done by BookProtobufProvider. Same books as
+ * BookJsonbBenchmark, to compare both formats.
+ *
+ * @author jefrajames
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BookProtobufBenchmark {
+
+    @Param({ "20" })
+    int pageSize;
+
+    private final ByteArrayOutputStream pageOutput = new ByteArrayOutputStream(64 * 1024);
+
+    private Book book;
+
+    private byte[] message;
+
+    private List<Book> page;
+
+    @Setup(Level.Trial)
+    public void setup() throws MalformedURLException {
+        book = BookJsonbBenchmark.book(1001);
+        message = BookProtobufProvider.toMessage(book).toByteArray();
+        page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            page.add(BookJsonbBenchmark.book(1001 + i));
+        }
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return BookProtobufProvider.toMessage(book).toByteArray();
+    }
+
+    @Benchmark
+    public Book deserialize() throws IOException {
+        return BookProtobufProvider.fromMessage(io.jefrajames.bookstore.proto.Book.parseFrom(message));
+    }
+
+    @Benchmark
+    public int serializePage() throws IOException {
+        pageOutput.reset();
+        BookProtobufProvider.BooksWriter writer = new BookProtobufProvider.BooksWriter(pageOutput);
+        for (Book value : page) {
+            writer.write(value);
+        }
+        writer.flush();
+        return pageOutput.size();
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.entity;
+
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JSON-B mapping of books, as done by the JAX-RS provider of rest-book.
+ *
+ * @author jefrajames
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BookJsonbBenchmark {
+
+    @Param({ "20" })
+    int pageSize;
+
+    private Jsonb jsonb;
+
+    private Book book;
+
+    private String json;
+
+    private List<Book> page;
+
+    @Setup(Level.Trial)
+    public void setup() throws MalformedURLException {
+        jsonb = JsonbBuilder.create();
+        book = book(1001);
+        json = jsonb.toJson(book);
+        page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            page.add(book(1001 + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        jsonb.close();
+    }
+
+    // Same shape as the books of import.sql
+    public static Book book(long id) throws MalformedURLException {
+        Book book = new Book();
+        book.id = id;
+        book.version = 1;
+        book.title = "Advanced Java EE Development with WildFly " + id;
+        book.isbn13 = "978-1-78328-890-8";
+        book.isbn10 = "1-78328-890-9";
+        book.author = "Antoine Sabot-Durand";
+        book.yearOfPublication = 2015;
+        book.nbOfPages = 416;
+        book.rank = 3;
+        book.price = new BigDecimal("44.99");
+        book.smallImageUrl = new URL("http://ecx.images-amazon.com/images/I/51f7V8CEb7L._SL75_.jpg");
+        book.mediumImageUrl = new URL("http://ecx.images-amazon.com/images/I/51f7V8CEb7L._SL160_.jpg");
+        book.description = "Your one-stop guide to developing Java EE applications with the Eclipse IDE, Maven, and WildFly 8.1. ".repeat(10);
+        return book;
+    }
+
+    @Benchmark
+    public String serialize() {
+        return jsonb.toJson(book);
+    }
+
+    @Benchmark
+    public Book deserialize() {
+        return jsonb.fromJson(json, Book.class);
+    }
+
+    @Benchmark
+    public String serializePage() {
+        return jsonb.toJson(page);
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.maintenance.boundary;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost added by CheckMaintenanceFilter to each request on the books resource.
+ *
+ * @author jefrajames
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CheckMaintenanceFilterBenchmark {
+
+    private CheckMaintenanceFilter open;
+
+    private CheckMaintenanceFilter closed;
+
+    private ContainerRequestContext context;
+
+    private Response aborted;
+
+    @Setup
+    public void setup() {
+        open = new CheckMaintenanceFilter();
+        open.appIsOpen = true;
+        closed = new CheckMaintenanceFilter();
+        closed.appIsOpen = false;
+
+        // The warning of each rejected request would be measured instead of the filter
+        Logger.getLogger(CheckMaintenanceFilter.class.getName()).setLevel(Level.SEVERE);
+
+        // Only abortWith is called by the filter
+        context = (ContainerRequestContext) Proxy.newProxyInstance(
+                ContainerRequestContext.class.getClassLoader(),
+                new Class<?>[] { ContainerRequestContext.class },
+                (proxy, method, args) -> {
+                    if ("abortWith".equals(method.getName())) {
+                        aborted = (Response) args[0];
+                    }
+                    return null;
+                });
+    }
+
+    @Benchmark
+    public ContainerRequestContext appIsOpen() throws IOException {
+        open.filter(context);
+        return context;
+    }
+
+    @Benchmark
+    public Response appIsClosed() throws IOException {
+        closed.filter(context);
+        return aborted;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.number;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Book numbers generation, in both ISBN modes of NumberResource, and their
+ * JSON-B mapping. The injected latency is left out: it is what it is configured.
+ *
+ * @author jefrajames
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NumberBenchmark {
+
+    private BookNumberGenerator generator;
+
+    private IsbnAllocator allocator;
+
+    private Path directory;
+
+    private Jsonb jsonb;
+
+    private BookNumberResponse numbers;
+
+    private String json;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        generator = new BookNumberGenerator(true);
+        directory = Files.createTempDirectory("isbn-allocator");
+        jsonb = JsonbBuilder.create();
+        numbers = generator.generate();
+        json = jsonb.toJson(numbers);
+    }
+
+    // A new file for each iteration: the benchmark must not exhaust the ISBN ranges
+    @Setup(Level.Iteration)
+    public void openAllocator() throws IOException {
+        allocator = new IsbnAllocator();
+        allocator.file = directory.resolve("isbn-allocator.dat");
+        allocator.blockSize = 10_000;
+        Files.deleteIfExists(allocator.file);
+        allocator.open();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeAllocator() {
+        allocator.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        jsonb.close();
+        Files.deleteIfExists(directory.resolve("isbn-allocator.dat"));
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public BookNumberResponse generateRandom() {
+        return generator.generate();
+    }
+
+    @Benchmark
+    public BookNumberResponse generateAllocated() {
+        return generator.generate(allocator.allocate(1));
+    }
+
+    @Benchmark
+    public String serialize() {
+        return jsonb.toJson(numbers);
+    }
+
+    @Benchmark
+    public BookNumberResponse deserialize() {
+        return jsonb.fromJson(json, BookNumberResponse.class);
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.load;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import io.jefrajames.bookstore.load.Workload.Operation;
+import lombok.extern.java.Log;
+
+/**
+ * Sends the requests of a workload with the JDK HTTP client.
+ *
+ * Open loop: requests are scheduled at a constant rate and their latency is
+ * measured from their scheduled time, so a stalled server is not hidden by
+ * a stalled generator. Closed loop: each user sends its next request once
+ * the previous one is answered, after a think time. Slow responses are
+ * corrected with the expected interval between two requests of a user,
+ * measured during the warmup.
+ *
+ * Nothing is recorded during the warmup.
+ *
+ * @author jefrajames
+ */
+@Log
+public class LoadGenerator {
+
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+
+    private final LoadOptions options;
+
+    private final Workload workload;
+
+    private final HttpClient client;
+
+    private final Map<String, OperationStats> stats = new LinkedHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis());
+
+    private long[] ids = new long[0];
+
+    public LoadGenerator(LoadOptions options, Workload workload) {
+        this.options = options;
+        this.workload = workload;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(options.getTimeout())
+                .build();
+        for (Operation operation : workload.getOperations()) {
+            stats.put(operation.getName(), new OperationStats(operation.getName()));
+        }
+    }
+
+    public LoadReport run() throws IOException, InterruptedException {
+        if (workload.usesIds()) {
+            loadIds();
+        }
+        log.info("Load test starting: " + options);
+
+        long start = System.nanoTime();
+        long measureFrom = start + options.getWarmup().toNanos();
+        long end = measureFrom + options.getDuration().toNanos();
+        if (options.getMode() == LoadOptions.Mode.OPEN) {
+            runOpenLoop(start, measureFrom, end);
+        } else {
+            runClosedLoop(measureFrom, end);
+        }
+        return new LoadReport(options, workload.getName(), new ArrayList<>(stats.values()));
+    }
+
+    private void loadIds() throws IOException, InterruptedException {
+        if (options.getIds() == null) {
+            throw new IllegalArgumentException("The mix " + workload.getName() + " uses {id}, an ids page is expected");
+        }
+        HttpResponse<String> page = client.send(
+                HttpRequest.newBuilder(URI.create(options.getTarget() + options.getIds())).timeout(options.getTimeout()).build(),
+                HttpResponse.BodyHandlers.ofString());
+        Matcher matcher = ID.matcher(page.body());
+        List<Long> found = new ArrayList<>();
+        while (matcher.find()) {
+            found.add(Long.parseLong(matcher.group(1)));
+        }
+        if (found.isEmpty()) {
+            throw new IllegalStateException("No identifier in " + options.getIds() + ", status " + page.statusCode());
+        }
+        ids = found.stream().mapToLong(Long::longValue).toArray();
+        log.info(ids.length + " identifiers read from " + options.getIds());
+    }
+
+    private HttpRequest request(Operation operation) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(options.getTarget() + expand(operation.getPath())))
+                .timeout(options.getTimeout())
+                .header("Accept", "application/json");
+        if (operation.getBody() == null) {
+            return builder.method(operation.getMethod(), HttpRequest.BodyPublishers.noBody()).build();
+        }
+        return builder.header("Content-Type", "application/json")
+                .method(operation.getMethod(), HttpRequest.BodyPublishers.ofString(expand(operation.getBody())))
+                .build();
+    }
+
+    private String expand(String template) {
+        String expanded = template;
+        if (expanded.contains("{id}")) {
+            expanded = expanded.replace("{id}", Long.toString(ids[ThreadLocalRandom.current().nextInt(ids.length)]));
+        }
+        if (expanded.contains("{seq}")) {
+            expanded = expanded.replace("{seq}", Long.toString(sequence.incrementAndGet()));
+        }
+        return expanded;
+    }
+
+    private void runOpenLoop(long start, long measureFrom, long end) throws InterruptedException {
+        long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / options.getRate()));
+        Semaphore inFlight = new Semaphore(options.getMaxInFlight());
+        for (long i = 0;; i++) {
+            long scheduled = start + i * interval;
+            if (scheduled >= end) {
+                break;
+            }
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            inFlight.acquire();
+
+            Operation operation = workload.next(ThreadLocalRandom.current());
+            OperationStats operationStats = stats.get(operation.getName());
+            boolean measured = scheduled >= measureFrom;
+            long sent = System.nanoTime();
+            client.sendAsync(request(operation), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        long now = System.nanoTime();
+                        if (measured) {
+                            operationStats.record(micros(now - scheduled), micros(now - sent), failure == null ? response.statusCode() : -1);
+                        }
+                        inFlight.release();
+                    });
+        }
+        // Pending responses
+        if (!inFlight.tryAcquire(options.getMaxInFlight(), options.getTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+            log.warning("Responses still pending at the end of the load test");
+        }
+    }
+
+    private void runClosedLoop(long measureFrom, long end) throws InterruptedException {
+        Histogram warmupLatencies = new ConcurrentHistogram(3);
+        long thinkTime = options.getThinkTime().toNanos();
+        AtomicLong expectedInterval = new AtomicLong(-1);
+
+        ExecutorService users = Executors.newFixedThreadPool(options.getConcurrency());
+        for (int user = 0; user < options.getConcurrency(); user++) {
+            users.execute(() -> {
+                while (true) {
+                    long sent = System.nanoTime();
+                    if (sent >= end) {
+                        return;
+                    }
+                    Operation operation = workload.next(ThreadLocalRandom.current());
+                    int status = send(operation);
+                    long latency = micros(System.nanoTime() - sent);
+                    if (sent < measureFrom) {
+                        warmupLatencies.recordValue(latency);
+                    } else {
+                        stats.get(operation.getName()).recordWithExpectedInterval(latency, expectedInterval(expectedInterval, warmupLatencies, thinkTime), status);
+                    }
+                    if (thinkTime > 0) {
+                        LockSupport.parkNanos(thinkTime);
+                    }
+                }
+            });
+        }
+        users.shutdown();
+        if (!users.awaitTermination(end - System.nanoTime() + options.getTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+            log.warning("Users still waiting for responses at the end of the load test");
+            users.shutdownNow();
+        }
+    }
+
+    // Mean warmup latency plus think time, computed once by the first user out of the warmup. 0 means no correction
+    private static long expectedInterval(AtomicLong interval, Histogram warmupLatencies, long thinkTimeNanos) {
+        long value = interval.get();
+        if (value < 0) {
+            long mean = warmupLatencies.getTotalCount() == 0 ? 0 : (long) warmupLatencies.getMean();
+            interval.compareAndSet(-1, mean + micros(thinkTimeNanos));
+            value = interval.get();
+        }
+        return value;
+    }
+
+    private int send(Operation operation) {
+        try {
+            return client.send(request(operation), HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException ex) {
+            return -1;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+}
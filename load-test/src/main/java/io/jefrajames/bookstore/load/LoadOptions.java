@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.load;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Settings of a load test run.
+ *
+ * They come, by priority, from the command line (--key=value) or the load.*
+ * system properties, then from the mix script, then from the defaults below.
+ *
+ * @author jefrajames
+ */
+@Getter
+@ToString
+public class LoadOptions {
+
+    public enum Mode {
+        // Requests sent at a constant rate, whatever the response times
+        OPEN,
+        // A fixed number of users, each waiting for its response before the next request
+        CLOSED
+    }
+
+    static final String PREFIX = "load.";
+
+    private final String target;
+
+    private final String mix;
+
+    // Page of books read once, to draw the {id} of the requests from
+    private final String ids;
+
+    private final Mode mode;
+
+    // Requests per second, open loop
+    private final double rate;
+
+    // Users, closed loop
+    private final int concurrency;
+
+    private final Duration thinkTime;
+
+    private final Duration warmup;
+
+    private final Duration duration;
+
+    private final Duration timeout;
+
+    // Open loop: the sender waits beyond, its delay is still counted in the latencies
+    private final int maxInFlight;
+
+    private final Path reportDir;
+
+    LoadOptions(Map<String, String> values) {
+        target = stripSlash(values.getOrDefault("target", "http://localhost:8080"));
+        mix = values.getOrDefault("mix", "read-heavy");
+        ids = values.get("ids");
+        mode = Mode.valueOf(values.getOrDefault("mode", "open").trim().toUpperCase(Locale.ROOT));
+        rate = Double.parseDouble(values.getOrDefault("rate", "100"));
+        concurrency = Integer.parseInt(values.getOrDefault("concurrency", "16"));
+        thinkTime = duration(values.getOrDefault("think-time", "0"));
+        warmup = duration(values.getOrDefault("warmup", "10s"));
+        duration = duration(values.getOrDefault("duration", "60s"));
+        timeout = duration(values.getOrDefault("timeout", "10s"));
+        maxInFlight = Integer.parseInt(values.getOrDefault("max-in-flight", "10000"));
+        reportDir = Path.of(values.getOrDefault("report-dir", "target/load-reports"));
+
+        if (rate <= 0 || concurrency <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("rate, concurrency and max-in-flight should be positive");
+        }
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * Parses 1500ms, 10s, 2m or a number of seconds.
+     */
+    static Duration duration(String value) {
+        String text = value.trim().toLowerCase(Locale.ROOT);
+        if (text.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+        }
+        if (text.endsWith("s")) {
+            return Duration.ofSeconds(Long.parseLong(text.substring(0, text.length() - 1)));
+        }
+        if (text.endsWith("m")) {
+            return Duration.ofMinutes(Long.parseLong(text.substring(0, text.length() - 1)));
+        }
+        return Duration.ofSeconds(Long.parseLong(text));
+    }
+
+    /**
+     * The load.* system properties, without their prefix.
+     */
+    public static Map<String, String> fromSystemProperties() {
+        Map<String, String> values = new HashMap<>();
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith(PREFIX))
+                .forEach(name -> values.put(name.substring(PREFIX.length()), System.getProperty(name)));
+        return values;
+    }
+
+    /**
+     * System properties overridden by --key=value arguments.
+     */
+    static Map<String, String> fromArguments(String[] args) {
+        Map<String, String> values = fromSystemProperties();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --key=value: " + arg);
+            }
+            values.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return values;
+    }
+
+}
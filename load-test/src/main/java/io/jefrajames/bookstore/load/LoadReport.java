@@ -0,0 +1,149 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.load;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import lombok.Getter;
+
+/**
+ * Throughput and latency percentiles of a load test, per operation and for
+ * the whole mix.
+ *
+ * The histograms are also written in the HdrHistogram percentile format
+ * (.hgrm), in milliseconds, to be plotted and compared across runs.
+ *
+ * @author jefrajames
+ */
+@Getter
+public class LoadReport {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final LoadOptions options;
+
+    private final String mix;
+
+    private final List<OperationStats> operations;
+
+    // Requests started during the measured duration are counted, whenever they completed
+    private final long measuredNanos;
+
+    private final Histogram corrected = new Histogram(3);
+
+    private final Histogram uncorrected = new Histogram(3);
+
+    LoadReport(LoadOptions options, String mix, List<OperationStats> operations) {
+        this.options = options;
+        this.mix = mix;
+        this.operations = operations;
+        this.measuredNanos = options.getDuration().toNanos();
+        for (OperationStats operation : operations) {
+            corrected.add(operation.getCorrected());
+            uncorrected.add(operation.getUncorrected());
+        }
+    }
+
+    public long count() {
+        return uncorrected.getTotalCount();
+    }
+
+    public long errors() {
+        return operations.stream().mapToLong(OperationStats::errors).sum();
+    }
+
+    // Responses per second
+    public double throughput() {
+        return count() / (measuredNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public void print(PrintStream out) {
+        out.printf(Locale.ROOT, "%nLoad test %s on %s: %s, %s measured%n", mix, options.getTarget(), load(), options.getDuration());
+        out.printf(Locale.ROOT, "%-40s %9s %9s %6s %6s %6s %6s", "operation (latency in ms)", "count", "req/s", "2xx", "4xx", "5xx", "fail");
+        for (double percentile : PERCENTILES) {
+            out.printf(Locale.ROOT, " %9s", "p" + format(percentile));
+        }
+        out.printf(Locale.ROOT, " %9s%n", "max");
+        for (OperationStats operation : operations) {
+            line(out, operation.getName(), operation.count(), operation.getCorrected(),
+                    operation.statusCount(2), operation.statusCount(4), operation.statusCount(5), operation.getFailures().sum());
+        }
+        line(out, "all", count(), corrected,
+                sum(2), sum(4), sum(5), operations.stream().mapToLong(op -> op.getFailures().sum()).sum());
+        line(out, "all, not corrected", count(), uncorrected, -1, -1, -1, -1);
+    }
+
+    private String load() {
+        if (options.getMode() == LoadOptions.Mode.OPEN) {
+            return "open loop at " + format(options.getRate()) + " req/s";
+        }
+        return "closed loop with " + options.getConcurrency() + " users, think time " + options.getThinkTime();
+    }
+
+    private long sum(int statusClass) {
+        return operations.stream().mapToLong(op -> op.statusCount(statusClass)).sum();
+    }
+
+    private void line(PrintStream out, String name, long count, Histogram histogram, long ok, long clientErrors, long serverErrors, long failures) {
+        out.printf(Locale.ROOT, "%-40s %9d %9.1f", name, count, count / (measuredNanos / (double) TimeUnit.SECONDS.toNanos(1)));
+        if (ok < 0) {
+            out.printf(Locale.ROOT, " %6s %6s %6s %6s", "", "", "", "");
+        } else {
+            out.printf(Locale.ROOT, " %6d %6d %6d %6d", ok, clientErrors, serverErrors, failures);
+        }
+        for (double percentile : PERCENTILES) {
+            out.printf(Locale.ROOT, " %9.2f", histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI);
+        }
+        out.printf(Locale.ROOT, " %9.2f%n", histogram.getMaxValue() / MICROS_PER_MILLI);
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    /**
+     * Writes one corrected .hgrm file per operation and for the whole mix, plus the not corrected one of the mix.
+     *
+     * @return the directory of the files
+     */
+    public Path write() throws IOException {
+        Path directory = options.getReportDir().resolve(mix + "-" + options.getMode().name().toLowerCase(Locale.ROOT));
+        Files.createDirectories(directory);
+        write(directory.resolve("all.hgrm"), corrected);
+        write(directory.resolve("all-not-corrected.hgrm"), uncorrected);
+        for (OperationStats operation : operations) {
+            write(directory.resolve(operation.getName().replaceAll("[^A-Za-z0-9]+", "_") + ".hgrm"), operation.getCorrected());
+        }
+        return directory;
+    }
+
+    private static void write(Path file, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+            histogram.outputPercentileDistribution(out, MICROS_PER_MILLI);
+        }
+    }
+
+}
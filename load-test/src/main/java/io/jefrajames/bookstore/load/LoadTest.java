@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.load;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.extern.java.Log;
+
+/**
+ * Runs a load test against started services.
+ *
+ * <pre>
+ * java -jar load-test.jar --target=http://localhost:8080 --mix=read-heavy --mode=open --rate=500
+ * </pre>
+ *
+ * @author jefrajames
+ */
+@Log
+public class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LoadReport report = run(LoadOptions.fromArguments(args));
+        if (report.count() == 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the mix of values, prints the report and writes its histograms.
+     *
+     * @param values options without their load. prefix, they override the settings of the mix
+     */
+    public static LoadReport run(Map<String, String> values) throws IOException, InterruptedException {
+        Workload workload = Workload.load(values.getOrDefault("mix", "read-heavy"));
+        Map<String, String> merged = new HashMap<>(workload.getSettings());
+        merged.putAll(values);
+
+        LoadReport report = new LoadGenerator(new LoadOptions(merged), workload).run();
+        report.print(System.out);
+        Path directory = report.write();
+        log.info("Latency histograms written to " + directory);
+        return report;
+    }
+
+}
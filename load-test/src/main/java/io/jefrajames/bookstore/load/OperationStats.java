@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.load;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import lombok.Getter;
+
+/**
+ * Latencies, in microseconds, and outcomes of one operation of the mix.
+ *
+ * The corrected histogram counts the time requests should have been sent
+ * but were not, because the load generator was waiting for the server
+ * (coordinated omission). The uncorrected one is what the server saw.
+ *
+ * @author jefrajames
+ */
+@Getter
+public class OperationStats {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final String name;
+
+    private final Histogram corrected = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+
+    private final Histogram uncorrected = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+
+    // Indexed by status / 100
+    private final LongAdder[] statuses = new LongAdder[6];
+
+    // No response: connection refused, timeout...
+    private final LongAdder failures = new LongAdder();
+
+    OperationStats(String name) {
+        this.name = name;
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = new LongAdder();
+        }
+    }
+
+    void record(long correctedMicros, long uncorrectedMicros, int status) {
+        corrected.recordValue(correctedMicros);
+        uncorrected.recordValue(uncorrectedMicros);
+        count(status);
+    }
+
+    // Closed loop: the requests that would have been sent during a slow response are added back
+    void recordWithExpectedInterval(long micros, long expectedIntervalMicros, int status) {
+        corrected.recordValueWithExpectedInterval(micros, expectedIntervalMicros);
+        uncorrected.recordValue(micros);
+        count(status);
+    }
+
+    private void count(int status) {
+        if (status < 0) {
+            failures.increment();
+        } else {
+            statuses[Math.min(status / 100, statuses.length - 1)].increment();
+        }
+    }
+
+    public long count() {
+        return uncorrected.getTotalCount();
+    }
+
+    public long statusCount(int statusClass) {
+        return statuses[statusClass].sum();
+    }
+
+    // 5xx and failures
+    public long errors() {
+        return statuses[5].sum() + failures.sum();
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Getter;
+
+/**
+ * Weighted mix of requests, read from a script.
+ *
+ * <pre>
+ * # Comment
+ * mode = closed                  settings, overridden by the command line
+ * ids = /api/books?limit=1000    page read once to pick {id} from
+ * 80 GET  /api/books/{id}        weight, method, path
+ * 5  POST /api/books @book.json  body read from a file next to the script
+ * </pre>
+ *
+ * In paths and bodies, {id} is replaced by an identifier of the ids page and
+ * {seq} by a number unique to the run.
+ *
+ * A script is a file, or one of the mixes bundled in this module: read-heavy,
+ * write-heavy and numbers.
+ *
+ * @author jefrajames
+ */
+public class Workload {
+
+    private static final String BUNDLED = "/mixes/";
+
+    @Getter
+    public static final class Operation {
+
+        private final String name;
+
+        private final int weight;
+
+        private final String method;
+
+        private final String path;
+
+        private final String body;
+
+        Operation(int weight, String method, String path, String body) {
+            this.name = method + " " + path;
+            this.weight = weight;
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+    }
+
+    @Getter
+    private final String name;
+
+    @Getter
+    private final Map<String, String> settings;
+
+    @Getter
+    private final List<Operation> operations;
+
+    private final int[] cumulativeWeights;
+
+    Workload(String name, Map<String, String> settings, List<Operation> operations) {
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("No operation in the mix " + name);
+        }
+        this.name = name;
+        this.settings = Collections.unmodifiableMap(settings);
+        this.operations = Collections.unmodifiableList(operations);
+        cumulativeWeights = new int[operations.size()];
+        int total = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            total += operations.get(i).weight;
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    public static Workload load(String mix) {
+        Path file = Path.of(mix);
+        try {
+            if (Files.isRegularFile(file)) {
+                Path directory = file.toAbsolutePath().getParent();
+                return parse(baseName(file.getFileName().toString()), Files.readAllLines(file),
+                        body -> Files.readString(directory.resolve(body)));
+            }
+            return parse(mix, readBundled(mix + ".mix").lines()::iterator, Workload::readBundled);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot read the mix " + mix, ex);
+        }
+    }
+
+    private static String baseName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    private static String readBundled(String resource) throws IOException {
+        try (InputStream in = Workload.class.getResourceAsStream(BUNDLED + resource)) {
+            if (in == null) {
+                throw new IOException("No file nor bundled mix named " + resource);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    interface BodyReader {
+        String read(String name) throws IOException;
+    }
+
+    static Workload parse(String name, Iterable<String> lines, BodyReader bodies) throws IOException {
+        Map<String, String> settings = new LinkedHashMap<>();
+        List<Operation> operations = new ArrayList<>();
+        for (String raw : lines) {
+            String line = raw.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int equals = line.indexOf('=');
+            String[] fields = line.split("\\s+");
+            if (equals > 0 && !Character.isDigit(line.charAt(0))) {
+                settings.put(line.substring(0, equals).strip(), line.substring(equals + 1).strip());
+            } else if (fields.length == 3 || fields.length == 4) {
+                String body = fields.length == 4 ? body(fields[3], bodies) : null;
+                operations.add(new Operation(Integer.parseInt(fields[0]), fields[1], fields[2], body));
+            } else {
+                throw new IllegalArgumentException("Invalid line in the mix " + name + ": " + raw);
+            }
+        }
+        return new Workload(name, settings, operations);
+    }
+
+    private static String body(String field, BodyReader bodies) throws IOException {
+        return field.startsWith("@") ? bodies.read(field.substring(1)) : field;
+    }
+
+    /**
+     * Draws an operation according to the weights.
+     */
+    public Operation next(ThreadLocalRandom random) {
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (draw < cumulativeWeights[i]) {
+                return operations.get(i);
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    public boolean usesIds() {
+        return operations.stream().anyMatch(op -> op.path.contains("{id}") || (op.body != null && op.body.contains("{id}")));
+    }
+
+}
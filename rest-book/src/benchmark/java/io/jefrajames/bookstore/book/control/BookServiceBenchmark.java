@@ -0,0 +1,151 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.book.control;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.enterprise.inject.spi.CDI;
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.jefrajames.bookstore.book.entity.Book;
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ManagedContext;
+
+/**
+ * Registration and random selection through the BookService bean of the
+ * running application: interceptors, Hibernate, the datasource pool, the
+ * in-memory indexes and MockNumberProxy for rest-number.
+ *
+ * Run in-process by BookServiceBenchmarkTest, each call in a request context
+ * as from a resource.
+ *
+ * @author jefrajames
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+@State(Scope.Benchmark)
+public class BookServiceBenchmark {
+
+    private static final int AUTHORS = 1000;
+
+    private static final int CHUNK_SIZE = 500;
+
+    // Trials run with growing sizes, the books of the previous one are kept
+    @Param({ "10000", "100000" })
+    int books;
+
+    private BookService service;
+
+    private final AtomicLong newBooks = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        // The books of import.sql have identifiers the sequence has not given, past the allocation size
+        try (Connection connection = CDI.current().select(DataSource.class).get().getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.execute("select setval('book_seq', (select coalesce(max(id), 0) from Book) + 50)");
+        }
+
+        service = CDI.current().select(BookService.class).get();
+        for (int from = 0; from < books; from += CHUNK_SIZE) {
+            List<Book> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (int i = from; i < Math.min(from + CHUNK_SIZE, books); i++) {
+                chunk.add(book(i));
+            }
+            // Already registered by a previous trial: answered as duplicates
+            inRequest(() -> {
+                try {
+                    return service.registerBooks(chunk);
+                } catch (DuplicateBookException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        }
+    }
+
+    private static Book book(int i) {
+        Book book = new Book();
+        book.title = "Understanding  Quarkus  volume " + i;
+        book.author = "Author " + i % AUTHORS;
+        book.yearOfPublication = 2000 + i % 20;
+        book.description = "Description of " + book.title;
+        return book;
+    }
+
+    private static <T> T inRequest(Supplier<T> call) {
+        ManagedContext requestContext = Arc.container().requestContext();
+        requestContext.activate();
+        try {
+            return call.get();
+        } finally {
+            requestContext.terminate();
+        }
+    }
+
+    private boolean register(Book book) {
+        return inRequest(() -> {
+            try {
+                service.registerBook(book);
+                return true;
+            } catch (DuplicateBookException ex) {
+                return false;
+            }
+        });
+    }
+
+    // The filter answers maybe, the database confirms, the transaction is rolled back
+    @Benchmark
+    public boolean registerDuplicateBook() {
+        return register(book(ThreadLocalRandom.current().nextInt(books)));
+    }
+
+    // The filter knows the book is new: ISBN numbers from the pool, insert, indexes updated
+    @Benchmark
+    public boolean registerNewBook() {
+        Book book = book(0);
+        book.title = "New book " + newBooks.incrementAndGet();
+        return register(book);
+    }
+
+    @Benchmark
+    public Optional<Book> randomBook() {
+        return inRequest(service::findRandomBook);
+    }
+
+}
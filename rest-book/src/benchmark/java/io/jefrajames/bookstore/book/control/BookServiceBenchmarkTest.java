@@ -0,0 +1,42 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.book.control;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.Collection;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.quarkus.test.junit.QuarkusTest;
+
+// rest-book started in-process, the benchmarks run in its JVM (no fork): mvn test -Dbenchmark
+@QuarkusTest
+public class BookServiceBenchmarkTest {
+
+    @Test
+    void shouldRunTheBenchmarks() throws Exception {
+        Options options = new OptionsBuilder()
+                .include(BookServiceBenchmark.class.getName())
+                .build();
+
+        Collection<RunResult> results = new Runner(options).run();
+        assertFalse(results.isEmpty(), "No result");
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.boundary;
+
+import static io.jefrajames.bookstore.protobuf.ProtobufMediaType.APPLICATION_PROTOBUF;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import io.jefrajames.bookstore.book.entity.Book;
+import io.jefrajames.bookstore.proto.Books;
+
+/**
+ * Reads and writes books, and lists of books, as the Book and Books
+ * messages of /proto/book.proto, with the classes generated from it.
+ *
+ * A new field of Book must be added to the schema, with a new number, and
+ * mapped here.
+ *
+ * @author jefrajames
+ */
+@Provider
+@Produces(APPLICATION_PROTOBUF)
+@Consumes(APPLICATION_PROTOBUF)
+public class BookProtobufProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+    /**
+     * Writes books one by one as the elements of a Books message, without
+     * holding the list.
+     */
+    static final class BooksWriter {
+
+        private final CodedOutputStream out;
+
+        BooksWriter(OutputStream out) {
+            this.out = CodedOutputStream.newInstance(out);
+        }
+
+        void write(Book value) throws IOException {
+            out.writeMessage(Books.BOOKS_FIELD_NUMBER, toMessage(value));
+        }
+
+        // The coded stream has its own buffer
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        // Lists of books are returned as a GenericEntity to keep their element type
+        return Book.class.isAssignableFrom(type) || (Collection.class.isAssignableFrom(type) && isListOfBooks(genericType));
+    }
+
+    @Override
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+
+        if (entity instanceof Book) {
+            toMessage((Book) entity).writeTo(entityStream);
+            return;
+        }
+        BooksWriter writer = new BooksWriter(entityStream);
+        for (Object element : (Collection<?>) entity) {
+            writer.write((Book) element);
+        }
+        writer.flush();
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return Book.class.equals(type) || (List.class.equals(type) && isListOfBooks(genericType));
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+
+        try {
+            if (Book.class.equals(type)) {
+                return fromMessage(io.jefrajames.bookstore.proto.Book.parseFrom(entityStream));
+            }
+            List<io.jefrajames.bookstore.proto.Book> messages = Books.parseFrom(entityStream).getBooksList();
+            List<Book> books = new ArrayList<>(messages.size());
+            for (io.jefrajames.bookstore.proto.Book message : messages) {
+                books.add(fromMessage(message));
+            }
+            return books;
+        } catch (InvalidProtocolBufferException | MalformedURLException | NumberFormatException ex) {
+            throw new BadRequestException("Invalid protobuf book: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static boolean isListOfBooks(Type genericType) {
+        return genericType instanceof ParameterizedType
+                && Book.class.equals(((ParameterizedType) genericType).getActualTypeArguments()[0]);
+    }
+
+    // Missing fields are not set: a partial book is written as such
+    static io.jefrajames.bookstore.proto.Book toMessage(Book book) {
+        io.jefrajames.bookstore.proto.Book.Builder message = io.jefrajames.bookstore.proto.Book.newBuilder()
+                .setVersion(book.version);
+        if (book.id != null)
+            message.setId(book.id);
+        if (book.title != null)
+            message.setTitle(book.title);
+        if (book.isbn13 != null)
+            message.setIsbn13(book.isbn13);
+        if (book.isbn10 != null)
+            message.setIsbn10(book.isbn10);
+        if (book.author != null)
+            message.setAuthor(book.author);
+        if (book.yearOfPublication != null)
+            message.setYearOfPublication(book.yearOfPublication);
+        if (book.nbOfPages != null)
+            message.setNbOfPages(book.nbOfPages);
+        if (book.rank != null)
+            message.setRank(book.rank);
+        if (book.price != null)
+            message.setPrice(book.price.toPlainString());
+        if (book.smallImageUrl != null)
+            message.setSmallImageUrl(book.smallImageUrl.toString());
+        if (book.mediumImageUrl != null)
+            message.setMediumImageUrl(book.mediumImageUrl.toString());
+        if (book.description != null)
+            message.setDescription(book.description);
+        return message.build();
+    }
+
+    // An empty string is a missing field in proto3
+    static Book fromMessage(io.jefrajames.bookstore.proto.Book message) throws MalformedURLException {
+        Book book = new Book();
+        book.id = message.hasId() ? message.getId() : null;
+        book.version = message.getVersion();
+        book.title = orNull(message.getTitle());
+        book.isbn13 = orNull(message.getIsbn13());
+        book.isbn10 = orNull(message.getIsbn10());
+        book.author = orNull(message.getAuthor());
+        book.yearOfPublication = message.hasYearOfPublication() ? message.getYearOfPublication() : null;
+        book.nbOfPages = message.hasNbOfPages() ? message.getNbOfPages() : null;
+        book.rank = message.hasRank() ? message.getRank() : null;
+        book.price = message.getPrice().isEmpty() ? null : new BigDecimal(message.getPrice());
+        book.smallImageUrl = message.getSmallImageUrl().isEmpty() ? null : new URL(message.getSmallImageUrl());
+        book.mediumImageUrl = message.getMediumImageUrl().isEmpty() ? null : new URL(message.getMediumImageUrl());
+        book.description = orNull(message.getDescription());
+        return book;
+    }
+
+    private static String orNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+}
@@ -15,34 +15,67 @@
  */
 package io.jefrajames.bookstore.book.boundary;
 
+import static io.jefrajames.bookstore.protobuf.ProtobufMediaType.APPLICATION_PROTOBUF;
+import static io.jefrajames.bookstore.protobuf.ProtobufMediaType.APPLICATION_PROTOBUF_TYPE;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static javax.ws.rs.core.Response.Status.ACCEPTED;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.json.Json;
-import javax.json.JsonArray;
 import javax.json.JsonObject;
+import javax.json.bind.Jsonb;
+import javax.persistence.OptimisticLockException;
 import javax.validation.Valid;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
 import org.eclipse.microprofile.metrics.MetricUnits;
-import org.eclipse.microprofile.metrics.annotation.Timed;
+import org.eclipse.microprofile.metrics.Timer;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
@@ -52,8 +85,14 @@ import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 
+import io.jefrajames.bookstore.book.control.BookProjection;
+import io.jefrajames.bookstore.book.control.BookRegistrar;
+import io.jefrajames.bookstore.book.control.BookRegistration;
 import io.jefrajames.bookstore.book.control.BookService;
 import io.jefrajames.bookstore.book.control.DuplicateBookException;
+import io.jefrajames.bookstore.book.control.cache.CatalogSnapshot;
+import io.jefrajames.bookstore.book.control.search.InvertedIndex;
+import io.jefrajames.bookstore.book.control.search.SearchIndex;
 import io.jefrajames.bookstore.book.entity.Book;
 import io.jefrajames.bookstore.maintenance.boundary.CheckMaintenance;
 import lombok.extern.java.Log;
@@ -64,29 +103,325 @@ import lombok.extern.java.Log;
  * Thanks to the @CheckMaintenance annotation, it is not called if the site is
  * in maintenance.
  *
+ * Books are served as JSON by default, or as protobuf when asked in the
+ * Accept header (see BookProtobufProvider).
+ *
  * This class is implicitely traced by OpenAPI.
  *
  * @author jefrajames
  */
 @Path("/books")
-@Produces(MediaType.APPLICATION_JSON)
-@Consumes(MediaType.APPLICATION_JSON)
+@Produces({ MediaType.APPLICATION_JSON, APPLICATION_PROTOBUF })
+@Consumes({ MediaType.APPLICATION_JSON, APPLICATION_PROTOBUF })
 @Tag(name = "Book Endpoint")
 @CheckMaintenance
 @Log
 public class BookResource {
 
+    // JSON first: the default when both are acceptable
+    private static final List<Variant> VARIANTS = Variant.mediaTypes(MediaType.APPLICATION_JSON_TYPE, APPLICATION_PROTOBUF_TYPE).build();
+
     @Inject
     BookService service;
 
-    @Operation(summary = "Returns all the books from the database")
-    @APIResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class, type = SchemaType.ARRAY)))
-    @APIResponse(responseCode = "204", description = "No books")
+    @Inject
+    BookRegistrar registrar;
+
+    @Inject
+    Jsonb jsonb;
+
+    @Inject
+    VirtualThreadDispatcher dispatcher;
+
+    @Inject
+    CatalogSnapshot catalogSnapshot;
+
+    @Inject
+    SearchIndex searchIndex;
+
+    @Inject
+    MetricRegistry mr;
+
+    Timer createdBookTime;
+
+    Timer createdBooksBatchTime;
+
+    private static final String FIELDS_DESCRIPTION = "Fields to return, comma separated, e.g. title,author,price. All by default";
+
+    @ConfigProperty(name = "book.page.max-limit", defaultValue = "1000")
+    int maxPageLimit;
+
+    @ConfigProperty(name = "book.search.default-limit", defaultValue = "20")
+    int defaultSearchLimit;
+
+    @ConfigProperty(name = "book.search.max-limit", defaultValue = "100")
+    int maxSearchLimit;
+
+    @ConfigProperty(name = "book.batch.max-size", defaultValue = "10000")
+    int maxBatchSize;
+
+    @ConfigProperty(name = "book.batch.chunk-size", defaultValue = "500")
+    int batchChunkSize;
+
+    // Timed until the dispatched task completes, @Timed would only time its dispatch
+    @PostConstruct
+    void postConstruct() {
+
+        Metadata md = Metadata
+                .builder()
+                .withName("created_book_time")
+                .withDescription("Times how long it takes to invoke the createBook method")
+                .withType(MetricType.TIMER)
+                .withUnit(MetricUnits.MILLISECONDS)
+                .build();
+
+        createdBookTime = mr.timer(md, new org.eclipse.microprofile.metrics.Tag("version", "tnt-2022"),
+                new org.eclipse.microprofile.metrics.Tag("author", "jefrajames"));
+
+        createdBooksBatchTime = mr.timer(Metadata
+                .builder()
+                .withName("created_books_batch_time")
+                .withDescription("Times how long it takes to invoke the createBooks method")
+                .withType(MetricType.TIMER)
+                .withUnit(MetricUnits.MILLISECONDS)
+                .build());
+    }
+
+    private static CompletionStage<Response> timed(Timer timer, Supplier<CompletionStage<Response>> stage) {
+        Timer.Context context = timer.time();
+        return stage.get().whenComplete((response, failure) -> context.stop());
+    }
+
+    @Operation(summary = "Returns the books from the database", description = "Without paging parameters the whole catalog is returned, "
+            + "as JSON from a snapshot refreshed after each change (gzipped if accepted), or streamed. "
+            + "With 'after' and/or 'limit' a page is returned, sorted by identifier, with a 'next' link to the following page. "
+            + "With 'fields' only these fields, and the identifier, are read and returned")
+    @APIResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class, type = SchemaType.ARRAY)),
+            @Content(mediaType = APPLICATION_PROTOBUF, schema = @Schema(description = "Books message of /proto/book.proto")) })
+    @APIResponse(responseCode = "304", description = "The catalog has not changed since the given ETag")
+    @APIResponse(responseCode = "400", description = "Invalid paging parameters or unknown field")
     @APIResponse(responseCode = "503", description = "Service not available")
     @GET
-    public Response findAllBooks() {
-        List<Book> books = service.findAllBooks();
-        return Response.ok(books).build();
+    public CompletionStage<Response> findAllBooks(
+            @Parameter(description = "Identifier of the last book of the previous page") @QueryParam("after") Long after,
+            @Parameter(description = "Maximum number of books in the page") @QueryParam("limit") Integer limit,
+            @Parameter(description = FIELDS_DESCRIPTION) @QueryParam("fields") String fields,
+            @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+            @Context UriInfo uriInfo,
+            @Context Request request) {
+
+        int pageSize = limit == null ? maxPageLimit : limit;
+        if (pageSize < 1 || pageSize > maxPageLimit) {
+            return completedFuture(Response.status(BAD_REQUEST)
+                    .entity("limit should be between 1 and " + maxPageLimit)
+                    .build());
+        }
+        BookProjection projection;
+        try {
+            projection = projection(fields);
+        } catch (IllegalArgumentException ex) {
+            return completedFuture(Response.status(BAD_REQUEST).entity(ex.getMessage()).build());
+        }
+
+        MediaType type = negotiate(request);
+        boolean wholeCatalog = after == null && limit == null;
+        if (wholeCatalog && projection == null && MediaType.APPLICATION_JSON_TYPE.isCompatible(type)) {
+            Optional<CatalogSnapshot.Snapshot> snapshot = catalogSnapshot.get();
+            if (snapshot.isPresent()) {
+                return completedFuture(snapshotResponse(snapshot.get(), acceptsGzip(acceptEncoding), request));
+            }
+        }
+
+        // Taken before reading the books: a change made meanwhile gives a different tag next time
+        EntityTag tag = catalogTag(service.catalogVersion(), type, projection);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return completedFuture(notModified.build());
+        }
+
+        if (wholeCatalog) {
+            // Read while the response is written, with a database slot
+            return dispatcher.dispatch(() -> Response.ok(streamAllBooks(type, projection)).type(type).tag(tag).build());
+        }
+
+        UriBuilder nextBuilder = uriInfo.getRequestUriBuilder();
+        return dispatcher.dispatch(() -> {
+            long from = after == null ? 0L : after;
+            Object books;
+            int size;
+            long last;
+            if (projection == null) {
+                List<Book> page = service.findBooksAfter(from, pageSize);
+                books = books(page);
+                size = page.size();
+                last = page.isEmpty() ? from : page.get(page.size() - 1).id;
+            } else {
+                List<Object[]> rows = service.findProjectedBooksAfter(projection, from, pageSize);
+                books = APPLICATION_PROTOBUF_TYPE.isCompatible(type)
+                        ? books(rows.stream().map(projection::toBook).collect(Collectors.toList()))
+                        : rows.stream().map(projection::toMap).collect(Collectors.toList());
+                size = rows.size();
+                last = rows.isEmpty() ? from : projection.id(rows.get(rows.size() - 1));
+            }
+            Response.ResponseBuilder response = Response.ok(books).type(type).tag(tag);
+            if (size == pageSize) {
+                URI next = nextBuilder
+                        .replaceQueryParam("after", last)
+                        .replaceQueryParam("limit", pageSize)
+                        .build();
+                response.link(next, "next");
+            }
+            return response.build();
+        });
+    }
+
+    // The bytes are written as they are, the snapshot may be older than the catalog but its tag is its own
+    private static Response snapshotResponse(CatalogSnapshot.Snapshot snapshot, boolean gzip, Request request) {
+        EntityTag tag = new EntityTag(Long.toHexString(snapshot.getVersion()) + (gzip ? "-gzip" : ""));
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        Response.ResponseBuilder response = notModified != null ? notModified
+                : Response.ok(gzip ? snapshot.getGzip() : snapshot.getJson()).type(MediaType.APPLICATION_JSON_TYPE);
+        if (gzip) {
+            response.encoding("gzip");
+        }
+        return response.tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+    }
+
+    // gzip, or * when gzip is not listed, with a non-zero quality
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        float gzip = -1;
+        float any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            float quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException ex) {
+                        quality = 0;
+                    }
+                }
+            }
+            if ("gzip".equalsIgnoreCase(name)) {
+                gzip = quality;
+            } else if ("*".equals(name)) {
+                any = quality;
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : any > 0;
+    }
+
+    // Also sets the Vary header of the response
+    private static MediaType negotiate(Request request) {
+        Variant variant = request.selectVariant(VARIANTS);
+        return variant == null ? MediaType.APPLICATION_JSON_TYPE : variant.getMediaType();
+    }
+
+    // Null when all the fields are asked for
+    private static BookProjection projection(String fields) {
+        return fields == null ? null : BookProjection.parse(fields);
+    }
+
+    // A map of the asked fields for JSON, a partial book for protobuf where missing fields are not written
+    private static Object project(BookProjection projection, Object[] row, MediaType type) {
+        return APPLICATION_PROTOBUF_TYPE.isCompatible(type) ? projection.toBook(row) : projection.toMap(row);
+    }
+
+    // Keeps the element type, checked by BookProtobufProvider
+    private static GenericEntity<List<Book>> books(List<Book> books) {
+        return new GenericEntity<List<Book>>(books) {
+        };
+    }
+
+    // Strong ETags: a representation of a book only changes with its version, each representation has its own tag
+    private static EntityTag bookTag(long id, long version, MediaType type) {
+        return bookTag(id, version, type, null);
+    }
+
+    private static EntityTag bookTag(long id, long version, MediaType type, BookProjection projection) {
+        return new EntityTag(id + "-" + version + tagSuffix(type, projection));
+    }
+
+    // The tags of an If-None-Match header, "*" included, malformed ones ignored
+    private static List<EntityTag> entityTags(String header) {
+        List<EntityTag> tags = new ArrayList<>();
+        if (header != null) {
+            for (String value : header.split(",")) {
+                value = value.trim();
+                try {
+                    tags.add("*".equals(value) ? new EntityTag("*") : EntityTag.valueOf(value));
+                } catch (IllegalArgumentException ex) {
+                    // Not a tag
+                }
+            }
+        }
+        return tags;
+    }
+
+    // Weak comparison, as for If-None-Match on a GET
+    private static boolean matches(List<EntityTag> tags, EntityTag tag) {
+        return tags.stream().anyMatch(candidate -> "*".equals(candidate.getValue()) || candidate.getValue().equals(tag.getValue()));
+    }
+
+    private static EntityTag catalogTag(long version, MediaType type, BookProjection projection) {
+        return new EntityTag(Long.toHexString(version) + tagSuffix(type, projection));
+    }
+
+    private static String tagSuffix(MediaType type, BookProjection projection) {
+        return (APPLICATION_PROTOBUF_TYPE.isCompatible(type) ? "-pb" : "")
+                + (projection == null ? "" : "-f" + projection.getKey());
+    }
+
+    // Writes the books one by one while the database cursor is read
+    private StreamingOutput streamAllBooks(MediaType type, BookProjection projection) {
+        Consumer<Consumer<Object>> books = projection == null ? consumer -> service.streamAllBooks(consumer::accept)
+                : consumer -> service.streamProjectedBooks(projection, row -> consumer.accept(project(projection, row, type)));
+        if (APPLICATION_PROTOBUF_TYPE.isCompatible(type)) {
+            return output -> dispatcher.withPermit(() -> {
+                BookProtobufProvider.BooksWriter writer = new BookProtobufProvider.BooksWriter(output);
+                try {
+                    books.accept(book -> {
+                        try {
+                            writer.write((Book) book);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
+                } catch (UncheckedIOException ex) {
+                    throw ex.getCause();
+                }
+                writer.flush();
+            });
+        }
+        return output -> dispatcher.withPermit(() -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            writer.write('[');
+            try {
+                boolean[] first = { true };
+                books.accept(book -> {
+                    try {
+                        if (!first[0]) {
+                            writer.write(',');
+                        }
+                        first[0] = false;
+                        writer.write(jsonb.toJson(book));
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            writer.write(']');
+            writer.flush();
+        });
     }
 
     @Operation(summary = "Returns the count of books")
@@ -94,33 +429,141 @@ public class BookResource {
     @APIResponse(responseCode = "503", description = "Service not available")
     @GET
     @Path("/count")
+    @Produces(MediaType.APPLICATION_JSON)
     public JsonObject count() {
         return Json.createObjectBuilder().add("book.count", service.count()).build();
     }
 
     @Operation(summary = "Returns a random book")
-    @APIResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class)))
+    @APIResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class)),
+            @Content(mediaType = APPLICATION_PROTOBUF, schema = @Schema(description = "Book message of /proto/book.proto")) })
+    @APIResponse(responseCode = "400", description = "Unknown field")
+    @APIResponse(responseCode = "404", description = "No books")
     @APIResponse(responseCode = "503", description = "Service not available")
     @GET
     @Path("/random")
-    public Response getRandomBook() {
-        Book book = service.findRandomBook();
-        return Response.ok(book).build();
+    public CompletionStage<Response> getRandomBook(@Parameter(description = FIELDS_DESCRIPTION) @QueryParam("fields") String fields,
+            @Context Request request) {
+        BookProjection projection;
+        try {
+            projection = projection(fields);
+        } catch (IllegalArgumentException ex) {
+            return completedFuture(Response.status(BAD_REQUEST).entity(ex.getMessage()).build());
+        }
+
+        if (projection != null) {
+            MediaType type = negotiate(request);
+            return dispatcher.dispatch(() -> {
+                Optional<Object[]> row = service.findRandomProjectedBook(projection);
+                if (row.isPresent()) {
+                    return Response.ok(project(projection, row.get(), type)).type(type).build();
+                } else {
+                    return Response.status(NOT_FOUND).build();
+                }
+            });
+        }
+        return dispatcher.dispatch(() -> {
+            Optional<Book> book = service.findRandomBook();
+            if (book.isPresent()) {
+                return Response.ok(book.get()).build();
+            } else {
+                return Response.status(NOT_FOUND).build();
+            }
+        });
+    }
+
+    @Operation(summary = "Searches the books by title, author and description", description = "Books containing any word of the query, "
+            + "whatever its case and accents, best matches first. Title and author matches count more")
+    @APIResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class, type = SchemaType.ARRAY)),
+            @Content(mediaType = APPLICATION_PROTOBUF, schema = @Schema(description = "Books message of /proto/book.proto")) })
+    @APIResponse(responseCode = "400", description = "Missing query or invalid limit")
+    @APIResponse(responseCode = "503", description = "Service not available")
+    @GET
+    @Path("/search")
+    public CompletionStage<Response> searchBooks(
+            @Parameter(description = "Words to look for", required = true) @QueryParam("q") String query,
+            @Parameter(description = "Maximum number of books") @QueryParam("limit") Integer limit) {
+
+        int size = limit == null ? defaultSearchLimit : limit;
+        if (query == null || query.isBlank()) {
+            return completedFuture(Response.status(BAD_REQUEST).entity("q is required").build());
+        }
+        if (size < 1 || size > maxSearchLimit) {
+            return completedFuture(Response.status(BAD_REQUEST)
+                    .entity("limit should be between 1 and " + maxSearchLimit)
+                    .build());
+        }
+
+        // Ranked in memory, only the best books are read
+        List<Long> ids = searchIndex.search(query, size).stream()
+                .map(InvertedIndex.Hit::getId)
+                .collect(Collectors.toList());
+        return dispatcher.dispatch(() -> Response.ok(books(service.findBooksByIds(ids))).build());
     }
 
     @Operation(summary = "Returns a book for a given identifier")
-    @APIResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class)))
+    @APIResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class)),
+            @Content(mediaType = APPLICATION_PROTOBUF, schema = @Schema(description = "Book message of /proto/book.proto")) })
+    @APIResponse(responseCode = "304", description = "The book has not changed since the given ETag")
+    @APIResponse(responseCode = "400", description = "Unknown field")
     @APIResponse(responseCode = "404", description = "The book is not found for the given identifier")
     @APIResponse(responseCode = "503", description = "Service not available")
     @GET
     @Path("/{id}")
-    public Response getBook(@Parameter(description = "Book identifier", required = true) @PathParam("id") Long id) {
-        Optional<Book> book = service.findBookById(id);
-        if (book.isPresent()) {
-            return Response.ok(book).build();
-        } else {
-            return Response.status(NOT_FOUND).build();
+    public CompletionStage<Response> getBook(@Parameter(description = "Book identifier", required = true) @PathParam("id") Long id,
+            @Parameter(description = FIELDS_DESCRIPTION) @QueryParam("fields") String fields,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+            @Context Request request) {
+
+        BookProjection projection;
+        try {
+            projection = projection(fields);
+        } catch (IllegalArgumentException ex) {
+            return completedFuture(Response.status(BAD_REQUEST).entity(ex.getMessage()).build());
         }
+
+        // Answered from the version index when possible: no load, no serialization
+        MediaType type = negotiate(request);
+        OptionalLong version = service.findBookVersion(id);
+        if (version.isPresent()) {
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(bookTag(id, version.getAsLong(), type, projection));
+            if (notModified != null) {
+                return completedFuture(notModified.build());
+            }
+        }
+
+        // The Request is not read from the dispatched tasks: the loaded version is compared to the tags read here
+        List<EntityTag> noneMatch = entityTags(ifNoneMatch);
+        if (projection != null) {
+            return dispatcher.dispatch(() -> {
+                Optional<Object[]> row = service.findProjectedBook(projection, id);
+                if (row.isPresent()) {
+                    EntityTag tag = bookTag(id, projection.version(row.get()), type, projection);
+                    if (matches(noneMatch, tag)) {
+                        return Response.notModified(tag).build();
+                    }
+                    return Response.ok(project(projection, row.get(), type)).type(type).tag(tag).build();
+                } else {
+                    return Response.status(NOT_FOUND).build();
+                }
+            });
+        }
+
+        return dispatcher.dispatch(() -> {
+            Optional<Book> book = service.findBookById(id);
+            if (book.isPresent()) {
+                EntityTag tag = bookTag(id, book.get().version, type);
+                if (matches(noneMatch, tag)) {
+                    return Response.notModified(tag).build();
+                }
+                return Response.ok(book.get()).type(type).tag(tag).build();
+            } else {
+                return Response.status(NOT_FOUND).build();
+            }
+        });
     }
 
     @Operation(summary = "Creates a valid book")
@@ -128,38 +571,84 @@ public class BookResource {
     @APIResponse(responseCode = "202", description = "The book has not been yet created but will be ASAP")
     @APIResponse(responseCode = "503", description = "Service not available")
     @POST
-    @Timed(name = "created_book_time", description = "Times how long it takes to invoke the createBook method", unit = MetricUnits.MILLISECONDS, absolute = true, tags = {"version=tnt-2022", "author=jefrajames"})
-    public Response createBook(
+    public CompletionStage<Response> createBook(
             @RequestBody(required = true, content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class))) @Valid Book book,
             @Context UriInfo uriInfo) {
 
-        try {
-            book = service.registerBook(book);
-            UriBuilder builder = uriInfo.getAbsolutePathBuilder().path(Long.toString(book.id));
-            URI uri = builder.build();
-            return Response.created(uri).build();
-        } catch (IllegalStateException ex) {
-            // REST number not accessible
-            log.warning("IllegalStateException when registering book: " + ex.getMessage());
-            return Response.status(ACCEPTED).build();
-        } catch (DuplicateBookException ex) {
-            return Response.status(Response.Status.BAD_REQUEST)
-                    .entity(ex.getMessage())
-                    .build();
+        UriBuilder builder = uriInfo.getAbsolutePathBuilder();
+        return timed(createdBookTime, () -> dispatcher.dispatch(() -> {
+            try {
+                Book created = service.registerBook(book);
+                URI uri = builder.path(Long.toString(created.id)).build();
+                return Response.created(uri).build();
+            } catch (IllegalStateException ex) {
+                // REST number not accessible
+                log.warning("IllegalStateException when registering book: " + ex.getMessage());
+                return Response.status(ACCEPTED).build();
+            } catch (DuplicateBookException ex) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity(ex.getMessage())
+                        .build();
+            }
+        }));
+    }
+
+    @Operation(summary = "Creates several valid books", description = "Books are registered by chunks, one transaction per chunk. "
+            + "The registration results are returned in the same order as the books")
+    @APIResponse(responseCode = "200", description = "The registration result of each book", content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = BookRegistration.class, type = SchemaType.ARRAY)))
+    @APIResponse(responseCode = "400", description = "No books or too many books")
+    @APIResponse(responseCode = "503", description = "Service not available")
+    @POST
+    @Path("/batch")
+    @Produces(MediaType.APPLICATION_JSON)
+    public CompletionStage<Response> createBooks(
+            @RequestBody(required = true, content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class, type = SchemaType.ARRAY))) List<@Valid Book> books) {
+
+        if (books == null || books.isEmpty() || books.size() > maxBatchSize) {
+            return completedFuture(Response.status(BAD_REQUEST)
+                    .entity("Between 1 and " + maxBatchSize + " books expected")
+                    .build());
         }
 
+        return timed(createdBooksBatchTime, () -> dispatcher.dispatch(() -> {
+            List<BookRegistration> registrations = new ArrayList<>(books.size());
+            for (int from = 0; from < books.size(); from += batchChunkSize) {
+                registrations.addAll(registrar.register(books.subList(from, Math.min(from + batchChunkSize, books.size()))));
+            }
+            return Response.ok(registrations).build();
+        }));
     }
 
     @Operation(summary = "Updates an existing book")
     @APIResponse(responseCode = "200", description = "The updated book", content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class)))
+    @APIResponse(responseCode = "400", description = "Another book has the same author and title")
+    @APIResponse(responseCode = "404", description = "The book is not found for the given identifier")
+    @APIResponse(responseCode = "409", description = "The book has been updated since it was read")
     @APIResponse(responseCode = "503", description = "Service not available")
     @PUT
     // @Counted(name = "countUpdateBook", description = "Counts how many times the updateBook method has been invoked", absolute = true, tags = {"version=demo", "author=JFJ"})
     // @Timed(name = "timeUpdateBook", description = "Times how long it takes to invoke the updateBook method", unit = MetricUnits.MILLISECONDS, absolute = true, tags = {"version=demo", "author=JFJ"})
-    public Response updateBook(
-            @RequestBody(required = true, content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class))) @Valid Book book) {
-        book = service.updateBook(book);
-        return Response.ok(book).build();
+    public CompletionStage<Response> updateBook(
+            @RequestBody(required = true, content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Book.class))) @Valid Book book,
+            @Context Request request) {
+        MediaType type = negotiate(request);
+        return dispatcher.dispatch(() -> {
+            try {
+                Optional<Book> updated = service.updateBook(book);
+                if (updated.isEmpty()) {
+                    return Response.status(NOT_FOUND).build();
+                }
+                return Response.ok(updated.get()).type(type).tag(bookTag(updated.get().id, updated.get().version, type)).build();
+            } catch (DuplicateBookException ex) {
+                return Response.status(BAD_REQUEST)
+                        .entity(ex.getMessage())
+                        .build();
+            } catch (OptimisticLockException ex) {
+                return Response.status(CONFLICT)
+                        .entity(ex.getMessage())
+                        .build();
+            }
+        });
     }
 
     @Operation(summary = "Deletes an existing book")
@@ -167,19 +656,80 @@ public class BookResource {
     @APIResponse(responseCode = "503", description = "Service not available")
     @DELETE
     @Path("/{id}")
-    public Response deleteBook(@Parameter(description = "Book identifier", required = true) @PathParam("id") Long id) {
-        service.deleteBook(id);
-        log.info("Book deleted with " + id);
-        return Response.noContent().build();
+    public CompletionStage<Response> deleteBook(@Parameter(description = "Book identifier", required = true) @PathParam("id") Long id) {
+        return dispatcher.dispatch(() -> {
+            service.deleteBook(id);
+            log.info("Book deleted with " + id);
+            return Response.noContent().build();
+        });
     }
 
-    @Operation(summary = "List books pending for creation")
+    @Operation(summary = "List books pending for creation", description = "Pending books are returned by pages, in the order they have been accepted, "
+            + "with a 'next' link to the following page")
     @APIResponse(responseCode = "200", description = "The list of pending books")
+    @APIResponse(responseCode = "400", description = "Invalid paging parameters")
     @APIResponse(responseCode = "503", description = "Service not available")
     @GET
     @Path("/pending")
-    public JsonArray findPending() {
-        return service.findPendingBooks();
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response findPending(
+            @Parameter(description = "Position of the last pending book of the previous page") @QueryParam("after") Long after,
+            @Parameter(description = "Maximum number of pending books in the page") @QueryParam("limit") Integer limit,
+            @Context UriInfo uriInfo) {
+
+        int pageSize = limit == null ? maxPageLimit : limit;
+        if (pageSize < 1 || pageSize > maxPageLimit) {
+            return Response.status(BAD_REQUEST)
+                    .entity("limit should be between 1 and " + maxPageLimit)
+                    .build();
+        }
+
+        long[] offsets = service.findPendingOffsets(after == null ? -1L : after, pageSize);
+        Response.ResponseBuilder response = Response.ok(streamPendingBooks(offsets));
+        if (offsets.length == pageSize) {
+            URI next = uriInfo.getRequestUriBuilder()
+                    .replaceQueryParam("after", offsets[offsets.length - 1])
+                    .replaceQueryParam("limit", pageSize)
+                    .build();
+            response.link(next, "next");
+        }
+        return response.build();
+    }
+
+    // Pending books are already stored as JSON, they are copied as is
+    private StreamingOutput streamPendingBooks(long[] offsets) {
+        return output -> {
+            OutputStream stream = new BufferedOutputStream(output);
+            stream.write('[');
+            try {
+                boolean[] first = { true };
+                service.streamPendingBooks(offsets, json -> {
+                    try {
+                        if (!first[0]) {
+                            stream.write(',');
+                        }
+                        first[0] = false;
+                        stream.write(json);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            stream.write(']');
+            stream.flush();
+        };
+    }
+
+    @Operation(summary = "Returns the count of books pending for creation")
+    @APIResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON))
+    @APIResponse(responseCode = "503", description = "Service not available")
+    @GET
+    @Path("/pending/count")
+    @Produces(MediaType.APPLICATION_JSON)
+    public JsonObject countPending() {
+        return Json.createObjectBuilder().add("pending.count", service.countPendingBooks()).build();
     }
 
 }
\ No newline at end of file
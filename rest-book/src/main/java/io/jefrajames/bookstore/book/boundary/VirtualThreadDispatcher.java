@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.boundary;
+
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.core.Response;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ThreadContext;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.MetricUnits;
+
+import io.jefrajames.bookstore.book.control.cache.BookCacheBroadcast;
+import lombok.extern.java.Log;
+
+/**
+ * Runs the blocking work of a request on a virtual thread when the JVM
+ * provides them (Java 21), on the calling worker thread otherwise.
+ *
+ * Virtual threads are not bounded: a semaphore sized on the datasource pool
+ * keeps the number of requests talking to the database at the pool limit,
+ * less the connections held for good by the cache broadcast.
+ * A request waiting longer than the acquire timeout gets a 503.
+ *
+ * The code is compiled for Java 11, the virtual thread executor is looked up
+ * by reflection.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class VirtualThreadDispatcher {
+
+    @ConfigProperty(name = "book.virtual-threads.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "book.virtual-threads.max-concurrency", defaultValue = "20")
+    int maxConcurrency;
+
+    @ConfigProperty(name = "book.virtual-threads.acquire-timeout", defaultValue = "5s")
+    Duration acquireTimeout;
+
+    @Inject
+    ThreadContext threadContext;
+
+    @Inject
+    BookCacheBroadcast broadcast;
+
+    private ExecutorService executor;
+
+    private Semaphore permits;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            log.info("Virtual threads disabled, books requests run on the worker pool");
+            return;
+        }
+        executor = newVirtualThreadPerTaskExecutor();
+        if (executor == null) {
+            log.info("Virtual threads not available on Java " + Runtime.version().feature() + ", books requests run on the worker pool");
+            return;
+        }
+        int slots = Math.max(1, maxConcurrency - broadcast.heldConnections());
+        permits = new Semaphore(slots, true);
+        log.info("Books requests run on virtual threads, at most " + slots + " at a time");
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+            // Before Java 21, or Java 19/20 without --enable-preview
+            return null;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public boolean isVirtual() {
+        return executor != null;
+    }
+
+    /**
+     * Runs the task on a virtual thread with the context of the request
+     * (CDI request scope, JAX-RS context, transaction), or inline.
+     *
+     * Context objects such as UriInfo must be read before dispatching.
+     */
+    public CompletionStage<Response> dispatch(Supplier<Response> task) {
+        if (executor == null) {
+            return CompletableFuture.completedFuture(task.get());
+        }
+        Supplier<Response> contextual = threadContext.contextualSupplier(() -> runWithPermit(task));
+        try {
+            return CompletableFuture.supplyAsync(contextual, executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.completedFuture(Response.status(SERVICE_UNAVAILABLE).build());
+        }
+    }
+
+    public interface IOTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs the task on the calling thread with a database slot, for the work
+     * done once the resource method has returned, such as a streamed response.
+     */
+    public void withPermit(IOTask task) throws IOException {
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        if (!acquire()) {
+            throw new ServiceUnavailableException();
+        }
+        try {
+            task.run();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Response runWithPermit(Supplier<Response> task) {
+        if (!acquire()) {
+            return Response.status(SERVICE_UNAVAILABLE).build();
+        }
+        try {
+            return task.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean acquire() {
+        try {
+            if (permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            log.warning("No database slot within " + acquireTimeout.toMillis() + " ms");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    @Gauge(name = "book_virtual_threads_waiting", unit = MetricUnits.NONE, description = "Requests waiting for a database slot", absolute = true)
+    public int waiting() {
+        return permits == null ? 0 : permits.getQueueLength();
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control;
+
+import io.jefrajames.bookstore.book.entity.Book;
+import lombok.Value;
+
+/**
+ * CDI event fired by BookService on each write.
+ *
+ * In-memory structures derived from the books table observe it with
+ * TransactionPhase.AFTER_SUCCESS so that they only see committed changes.
+ *
+ * @author jefrajames
+ */
+@Value
+public class BookChangedEvent {
+
+    public enum Type {
+        CREATED, UPDATED, DELETED
+    }
+
+    Type type;
+
+    long id;
+
+    // null when the book has been deleted
+    Book book;
+
+    public static BookChangedEvent created(Book book) {
+        return new BookChangedEvent(Type.CREATED, book.id, book);
+    }
+
+    public static BookChangedEvent updated(Book book) {
+        return new BookChangedEvent(Type.UPDATED, book.id, book);
+    }
+
+    public static BookChangedEvent deleted(long id) {
+        return new BookChangedEvent(Type.DELETED, id, null);
+    }
+
+}
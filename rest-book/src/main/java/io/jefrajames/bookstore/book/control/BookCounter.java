@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.transaction.Transactional;
+
+import io.jefrajames.bookstore.book.entity.Book;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import lombok.extern.java.Log;
+
+/**
+ * In-memory count of the books.
+ *
+ * Counted at startup, then kept current by observing committed
+ * BookChangedEvent: reading it costs nothing. Changes made by other instances
+ * or directly in the database are caught up by a periodic reconciliation,
+ * book.count.reconcile-interval bounds how stale the count can be.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class BookCounter {
+
+    private final LongAdder count = new LongAdder();
+
+    @Transactional
+    void onStart(@Observes StartupEvent event) {
+        reconcile();
+        log.info("Book count loaded: " + count.sum());
+    }
+
+    void onBookChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) BookChangedEvent event) {
+        switch (event.getType()) {
+            case CREATED:
+                count.increment();
+                break;
+            case DELETED:
+                count.decrement();
+                break;
+            default:
+                break;
+        }
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    // Changes observed while counting are kept on top of the database count
+    @Scheduled(every = "{book.count.reconcile-interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    @Transactional
+    synchronized void reconcile() {
+        long before = count.sum();
+        long drift = Book.count() - before;
+        if (drift != 0) {
+            count.add(drift);
+            log.info("Book count corrected by " + drift + " after reconciliation with the database");
+        }
+    }
+
+}
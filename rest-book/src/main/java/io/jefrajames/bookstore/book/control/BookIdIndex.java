@@ -0,0 +1,236 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+
+import org.hibernate.jpa.QueryHints;
+
+import io.jefrajames.bookstore.book.control.cache.BookCache;
+import io.jefrajames.bookstore.book.control.cache.BookCacheBroadcast;
+import io.jefrajames.bookstore.book.entity.Book;
+import io.quarkus.runtime.StartupEvent;
+import lombok.extern.java.Log;
+
+/**
+ * In-memory index of the book identifiers and versions.
+ *
+ * Identifiers are kept sorted in a primitive array, versions in a parallel one
+ * (16 bytes per book). Picking a random book is then a random array access
+ * followed by a primary key lookup, whatever the size of the table, and
+ * conditional requests are answered without loading the book.
+ *
+ * Built at startup and kept current by observing committed BookChangedEvent.
+ * Books created or deleted by other instances are added or removed as they
+ * are notified, their updated versions are forgotten until the book is loaded
+ * again from the database. The index is loaded again when notifications may
+ * have been missed.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class BookIdIndex implements BookCacheBroadcast.Listener {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final long UNKNOWN_VERSION = -1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Inject
+    BookCacheBroadcast broadcast;
+
+    @Inject
+    BookCache bookCache;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+
+    private long[] versions = new long[INITIAL_CAPACITY];
+
+    private int size;
+
+    void onStart(@Observes StartupEvent event) {
+        load();
+        broadcast.subscribe(this);
+    }
+
+    @Transactional
+    void load() {
+        long[] loadedIds = new long[INITIAL_CAPACITY];
+        long[] loadedVersions = new long[INITIAL_CAPACITY];
+        int count = 0;
+        try (var stream = Book.getEntityManager()
+                .createQuery("select b.id, b.version from Book b order by b.id", Object[].class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, 10_000)
+                .getResultStream()) {
+            for (var it = stream.iterator(); it.hasNext();) {
+                if (count == loadedIds.length) {
+                    loadedIds = Arrays.copyOf(loadedIds, count * 2);
+                    loadedVersions = Arrays.copyOf(loadedVersions, count * 2);
+                }
+                Object[] row = it.next();
+                loadedIds[count] = (Long) row[0];
+                loadedVersions[count++] = (Long) row[1];
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            ids = loadedIds;
+            versions = loadedVersions;
+            size = count;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Book id index loaded with " + count + " identifiers");
+    }
+
+    void onBookChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) BookChangedEvent event) {
+        switch (event.getType()) {
+            case CREATED:
+                add(event.getId(), event.getBook().version);
+                break;
+            case UPDATED:
+                putVersion(event.getId(), event.getBook().version);
+                break;
+            case DELETED:
+                remove(event.getId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    // The cached book goes first: a load in progress cannot put back the previous version after
+    @Override
+    public void changed(long id, BookChangedEvent.Type type) {
+        bookCache.invalidate(id);
+        switch (type) {
+            case CREATED:
+                add(id, UNKNOWN_VERSION);
+                break;
+            case DELETED:
+                remove(id);
+                break;
+            default:
+                putVersion(id, UNKNOWN_VERSION);
+                break;
+        }
+    }
+
+    @Override
+    public void reset() {
+        bookCache.invalidateAll();
+        load();
+    }
+
+    public OptionalLong randomId() {
+        lock.readLock().lock();
+        try {
+            if (size == 0) {
+                return OptionalLong.empty();
+            }
+            return OptionalLong.of(ids[ThreadLocalRandom.current().nextInt(size)]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Empty if the book is not indexed or its version is not known
+    public OptionalLong version(long id) {
+        lock.readLock().lock();
+        try {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            return pos < 0 || versions[pos] == UNKNOWN_VERSION ? OptionalLong.empty() : OptionalLong.of(versions[pos]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void add(long id, long version) {
+        lock.writeLock().lock();
+        try {
+            // Identifiers come from a sequence: appending is the usual case
+            int pos = size == 0 || ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0 && pos < size) {
+                versions[pos] = Math.max(versions[pos], version);
+                return; // already indexed
+            }
+            if (pos < 0) {
+                pos = -pos - 1;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                versions = Arrays.copyOf(versions, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            System.arraycopy(versions, pos, versions, pos + 1, size - pos);
+            ids[pos] = id;
+            versions[pos] = version;
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Versions only increase: a book loaded before a change cannot hide it
+    public void putVersion(long id, long version) {
+        lock.writeLock().lock();
+        try {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                versions[pos] = version == UNKNOWN_VERSION ? UNKNOWN_VERSION : Math.max(versions[pos], version);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+                System.arraycopy(versions, pos + 1, versions, pos, size - pos - 1);
+                size--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+}
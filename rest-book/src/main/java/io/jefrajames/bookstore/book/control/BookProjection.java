@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control;
+
+import java.math.BigDecimal;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import io.jefrajames.bookstore.book.entity.Book;
+
+/**
+ * The fields of the books asked with ?fields=title,author,price.
+ *
+ * Only their columns are selected, plus the identifier, always returned, and
+ * the version, used for the ETag. There is one projection per set of fields,
+ * built once with its queries: their text does not change, so Hibernate
+ * reuses their plans.
+ *
+ * @author jefrajames
+ */
+public final class BookProjection {
+
+    /**
+     * The fields that can be asked for, by their JSON name.
+     */
+    public enum Field {
+        ID("id", book -> book.id, (book, value) -> book.id = (Long) value),
+        VERSION("version", book -> book.version, (book, value) -> book.version = (Long) value),
+        TITLE("title", book -> book.title, (book, value) -> book.title = (String) value),
+        ISBN13("isbn13", book -> book.isbn13, (book, value) -> book.isbn13 = (String) value),
+        ISBN10("isbn10", book -> book.isbn10, (book, value) -> book.isbn10 = (String) value),
+        AUTHOR("author", book -> book.author, (book, value) -> book.author = (String) value),
+        YEAR_OF_PUBLICATION("yearOfPublication", book -> book.yearOfPublication, (book, value) -> book.yearOfPublication = (Integer) value),
+        NB_OF_PAGES("nbOfPages", book -> book.nbOfPages, (book, value) -> book.nbOfPages = (Integer) value),
+        RANK("rank", book -> book.rank, (book, value) -> book.rank = (Integer) value),
+        PRICE("price", book -> book.price, (book, value) -> book.price = (BigDecimal) value),
+        SMALL_IMAGE_URL("smallImageUrl", book -> book.smallImageUrl, (book, value) -> book.smallImageUrl = (URL) value),
+        MEDIUM_IMAGE_URL("mediumImageUrl", book -> book.mediumImageUrl, (book, value) -> book.mediumImageUrl = (URL) value),
+        DESCRIPTION("description", book -> book.description, (book, value) -> book.description = (String) value);
+
+        private final String name;
+
+        private final Function<Book, Object> getter;
+
+        private final BiConsumer<Book, Object> setter;
+
+        Field(String name, Function<Book, Object> getter, BiConsumer<Book, Object> setter) {
+            this.name = name;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static final Map<String, Field> FIELDS = Arrays.stream(Field.values())
+            .collect(Collectors.toMap(field -> field.name.toLowerCase(Locale.ROOT), field -> field));
+
+    // At most one per subset of the fields
+    private static final Map<Set<Field>, BookProjection> PROJECTIONS = new ConcurrentHashMap<>();
+
+    private final Set<Field> fields;
+
+    // ID and VERSION first, then the asked fields
+    private final Field[] columns;
+
+    // Position in the row of each asked field, in the order of fields
+    private final int[] positions;
+
+    private final String select;
+
+    private final String key;
+
+    private BookProjection(Set<Field> fields) {
+        this.fields = fields;
+        List<Field> selected = new ArrayList<>(List.of(Field.ID, Field.VERSION));
+        fields.stream().filter(field -> field != Field.ID && field != Field.VERSION).forEach(selected::add);
+        this.columns = selected.toArray(new Field[0]);
+        this.positions = fields.stream().mapToInt(selected::indexOf).toArray();
+        this.select = selected.stream()
+                .map(field -> "b." + field.name)
+                .collect(Collectors.joining(", ", "select ", " from Book b"));
+        long mask = 0;
+        for (Field field : fields) {
+            mask |= 1L << field.ordinal();
+        }
+        this.key = Long.toHexString(mask);
+    }
+
+    /**
+     * Parses a comma separated list of fields, whatever their case and order.
+     *
+     * @throws IllegalArgumentException if the list is empty or a field is unknown
+     */
+    public static BookProjection parse(String list) {
+        Set<Field> fields = EnumSet.of(Field.ID);
+        boolean empty = true;
+        for (String name : list.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            Field field = FIELDS.get(trimmed.toLowerCase(Locale.ROOT));
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field " + trimmed + ", expected some of "
+                        + Arrays.stream(Field.values()).map(Field::getName).collect(Collectors.joining(",")));
+            }
+            fields.add(field);
+            empty = false;
+        }
+        if (empty) {
+            throw new IllegalArgumentException("fields should list at least one field");
+        }
+        return PROJECTIONS.computeIfAbsent(fields, BookProjection::new);
+    }
+
+    public Set<Field> getFields() {
+        return fields;
+    }
+
+    // Identifies the set of fields, for the ETags of the projected books
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * The query selecting the columns of the projection, as an Object[] per book.
+     *
+     * @param clause where and order by clauses on the book b
+     */
+    public String query(String clause) {
+        return select + " " + clause;
+    }
+
+    public long id(Object[] row) {
+        return (Long) row[0];
+    }
+
+    public long version(Object[] row) {
+        return (Long) row[1];
+    }
+
+    // The row the query would have returned, from a loaded book
+    public Object[] row(Book book) {
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            row[i] = columns[i].getter.apply(book);
+        }
+        return row;
+    }
+
+    // The asked fields only, in the order of Book
+    public Map<String, Object> toMap(Object[] row) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        int i = 0;
+        for (Field field : fields) {
+            values.put(field.name, row[positions[i++]]);
+        }
+        return values;
+    }
+
+    // A detached book with only the asked fields set, for binary formats that skip missing fields
+    public Book toBook(Object[] row) {
+        Book book = new Book();
+        int i = 0;
+        for (Field field : fields) {
+            field.setter.accept(book, row[positions[i++]]);
+        }
+        return book;
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import io.jefrajames.bookstore.book.control.pending.PendingBookStore;
+import io.jefrajames.bookstore.book.entity.Book;
+import lombok.extern.java.Log;
+
+/**
+ * Registers chunks of books, each one in its own transaction.
+ *
+ * A duplicate missed by the pre-checks, registered at the same moment or by
+ * another instance, is caught by the unique constraint: the chunk is rolled
+ * back and registered again book by book. Books without ISBN numbers are
+ * stored in the pending journal once their chunk is committed.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class BookRegistrar {
+
+    @Inject
+    BookService service;
+
+    @Inject
+    PendingBookStore pendingStore;
+
+    public List<BookRegistration> register(List<Book> books) {
+        List<BookRegistration> registrations = register(books, false);
+        for (int i = 0; i < registrations.size(); i++) {
+            if (registrations.get(i).getStatus() == BookRegistration.Status.PENDING) {
+                pendingStore.add(books.get(i));
+            }
+        }
+        return registrations;
+    }
+
+    // All or nothing for each transaction: a NumbersUnavailableException when ISBN numbers are missing
+    public List<BookRegistration> registerPending(List<Book> books) {
+        return register(books, true);
+    }
+
+    private List<BookRegistration> register(List<Book> books, boolean pending) {
+        try {
+            return registerChunk(books, pending);
+        } catch (DuplicateBookException ex) {
+            log.info("Duplicate caught by the unique constraint, " + books.size() + " books registered one by one");
+        }
+        List<BookRegistration> registrations = new ArrayList<>(books.size());
+        for (Book book : books) {
+            try {
+                registrations.addAll(registerChunk(List.of(book), pending));
+            } catch (DuplicateBookException ex) {
+                registrations.add(BookRegistration.duplicate());
+            }
+        }
+        return registrations;
+    }
+
+    private List<BookRegistration> registerChunk(List<Book> books, boolean pending) throws DuplicateBookException {
+        return pending ? service.registerPendingBooks(books) : service.registerBooks(books);
+    }
+
+}
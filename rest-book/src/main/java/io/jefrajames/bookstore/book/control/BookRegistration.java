@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import lombok.Value;
+
+/**
+ * Outcome of the registration of one book of a bulk request.
+ *
+ * @author jefrajames
+ */
+@Value
+@Schema(description = "Registration result of a book")
+public class BookRegistration {
+
+    public enum Status {
+        // Persisted in the database
+        CREATED,
+        // Same author and same title already registered
+        DUPLICATE,
+        // No ISBN numbers available, stored for later processing
+        PENDING
+    }
+
+    Status status;
+
+    // Only set when created
+    Long id;
+
+    public static BookRegistration created(long id) {
+        return new BookRegistration(Status.CREATED, id);
+    }
+
+    public static BookRegistration duplicate() {
+        return new BookRegistration(Status.DUPLICATE, null);
+    }
+
+    public static BookRegistration pending() {
+        return new BookRegistration(Status.PENDING, null);
+    }
+
+}
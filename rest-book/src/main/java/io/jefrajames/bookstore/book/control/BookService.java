@@ -15,23 +15,27 @@
  */
 package io.jefrajames.bookstore.book.control;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.PrintWriter;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
-import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.bind.JsonbBuilder;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
 import javax.transaction.Transactional;
 import javax.validation.Valid;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.faulttolerance.Fallback;
 import org.eclipse.microprofile.metrics.Counter;
 import org.eclipse.microprofile.metrics.Metadata;
@@ -41,11 +45,16 @@ import org.eclipse.microprofile.metrics.MetricUnits;
 import org.eclipse.microprofile.metrics.Tag;
 import org.eclipse.microprofile.metrics.annotation.Gauge;
 import org.eclipse.microprofile.opentracing.Traced;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.jpa.QueryHints;
 
+import io.jefrajames.bookstore.book.control.cache.BookCache;
+import io.jefrajames.bookstore.book.control.numbers.IsbnNumberPool;
 import io.jefrajames.bookstore.book.control.numbers.IsbnNumbers;
-import io.jefrajames.bookstore.book.control.numbers.NumberClient;
+import io.jefrajames.bookstore.book.control.numbers.NumbersUnavailableException;
+import io.jefrajames.bookstore.book.control.pending.PendingBookStore;
 import io.jefrajames.bookstore.book.entity.Book;
+import io.quarkus.panache.common.Sort;
 import io.quarkus.runtime.annotations.RegisterForReflection;
 import lombok.extern.java.Log;
 
@@ -65,13 +74,40 @@ import lombok.extern.java.Log;
 @Log
 public class BookService {
 
-    @RestClient
+    // Bounds the lookups when random identifiers point to books deleted elsewhere
+    private static final int RANDOM_BOOK_ATTEMPTS = 5;
+
     @Inject
-    NumberClient numberClient;
+    IsbnNumberPool isbnNumberPool;
 
     @Inject
     MetricRegistry mr;
 
+    @Inject
+    BookIdIndex idIndex;
+
+    @Inject
+    CatalogVersion catalogVersion;
+
+    @Inject
+    BookCache bookCache;
+
+    @Inject
+    BookCounter bookCounter;
+
+    @Inject
+    DuplicateBookFilter duplicateFilter;
+
+    @Inject
+    PendingBookStore pendingStore;
+
+    @Inject
+    Event<BookChangedEvent> bookChanged;
+
+    // Rows fetched per JDBC round trip when streaming the whole catalog
+    @ConfigProperty(name = "book.stream.fetch-size", defaultValue = "256")
+    int streamFetchSize;
+
     Counter bookDuplicationCount;
 
     @PostConstruct
@@ -87,92 +123,366 @@ public class BookService {
         bookDuplicationCount = mr.counter(md, new Tag("demo", "tnt-2022"), new Tag("author", "jefrajames"));
     }
 
-    // Check same author and same title
+    // Check same author and same normalized title, the query is skipped when the filter knows the pair is new
     private void checkDuplicateBook(Book book) throws DuplicateBookException {
 
-        if (Book.count("author =?1 and title=?2", book.author, book.title) != 0) {
-            bookDuplicationCount.inc();
-            throw new DuplicateBookException("Book " + book.title + " from " + book.author + " already registered");
+        String titleKey = Book.normalizeTitle(book.title);
+        if (duplicateFilter.mightContain(book.author, titleKey)
+                && Book.count("author = ?1 and titleKey = ?2", book.author, titleKey) != 0) {
+            throw duplicateBook(book);
         }
 
     }
 
+    private DuplicateBookException duplicateBook(Book book) {
+        bookDuplicationCount.inc();
+        return new DuplicateBookException("Book " + book.title + " from " + book.author + " already registered");
+    }
+
+    // Concurrent registrations of the same book are caught by the unique constraint
+    private static boolean isDuplicateViolation(PersistenceException ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException) {
+                return Book.UNIQUE_AUTHOR_TITLE.equalsIgnoreCase(((ConstraintViolationException) cause).getConstraintName());
+            }
+        }
+        return false;
+    }
+
     @Fallback(fallbackMethod = "fallbackPersistBook", skipOn = { DuplicateBookException.class })
+    @Transactional(value = Transactional.TxType.REQUIRED, rollbackOn = DuplicateBookException.class)
     public Book registerBook(@Valid Book book) throws DuplicateBookException {
 
         // Check if book not already registered
         checkDuplicateBook(book);
 
         // Check error case when Service Number no accessible
-        IsbnNumbers isbnNumbers = numberClient.generateIsbnNumbers();
+        IsbnNumbers isbnNumbers = isbnNumberPool.take();
         book.isbn13 = isbnNumbers.getIsbn13();
         book.isbn10 = isbnNumbers.getIsbn10();
 
         Book.persist(book);
+        try {
+            Book.flush();
+        } catch (PersistenceException ex) {
+            if (isDuplicateViolation(ex)) {
+                // Rolled back: its numbers are not lost
+                isbnNumberPool.giveBack(List.of(isbnNumbers));
+                book.id = null;
+                book.version = 0;
+                book.isbn13 = null;
+                book.isbn10 = null;
+                throw duplicateBook(book);
+            }
+            throw ex;
+        }
+        bookChanged.fire(BookChangedEvent.created(book));
         return book;
     }
 
-    // We have no ISBN numbers, we cannot persist in the database
-    private Book fallbackPersistBook(Book book) throws FileNotFoundException {
-        // Book data is stored in a flat file for later batch processing
-        String bookJson = JsonbBuilder.create().toJson(book);
-        try (PrintWriter out = new PrintWriter("book-" + Instant.now().toEpochMilli() + ".json")) {
-            out.println(bookJson);
-        }
+    /**
+     * Same rules as registerBook for a chunk of books: one duplicate query, one ISBN request, batched inserts.
+     *
+     * Books without ISBN numbers are returned as pending, they are not stored: see BookRegistrar.
+     *
+     * @throws DuplicateBookException when the unique constraint catches a duplicate missed by the pre-checks,
+     *         nothing is registered
+     */
+    @Transactional(value = Transactional.TxType.REQUIRED, rollbackOn = DuplicateBookException.class)
+    public List<BookRegistration> registerBooks(List<Book> books) throws DuplicateBookException {
+        return registerBooks(books, true);
+    }
 
-        throw new IllegalStateException("Numbers service not accessible");
+    // Same as registerBooks but all or nothing: without ISBN numbers for every book, nothing is registered
+    @Transactional(value = Transactional.TxType.REQUIRED, rollbackOn = DuplicateBookException.class)
+    public List<BookRegistration> registerPendingBooks(List<Book> books) throws DuplicateBookException {
+        return registerBooks(books, false);
     }
 
-    public JsonArray findPendingBooks() {
+    private List<BookRegistration> registerBooks(List<Book> books, boolean allowMissing) throws DuplicateBookException {
+
+        Set<String> registered = findRegisteredKeys(books);
+        List<Book> accepted = new ArrayList<>(books.size());
+        List<BookRegistration> registrations = new ArrayList<>(books.size());
+        for (Book book : books) {
+            // Duplicates inside the chunk are detected as well
+            if (!registered.add(duplicateKey(book.author, Book.normalizeTitle(book.title)))) {
+                bookDuplicationCount.inc();
+                registrations.add(BookRegistration.duplicate());
+            } else {
+                accepted.add(book);
+                registrations.add(null);
+            }
+        }
 
-        var dir = new File(".");
-        File[] bookFiles = dir.listFiles((d, name) -> name.startsWith("book-"));
-        var builder = Json.createArrayBuilder();
-        for (File pending : bookFiles) {
-            try ( var jsonReader = Json.createReader(new FileReader(pending))) {
-                builder.add(jsonReader.readObject());
-            } catch (FileNotFoundException ex) {
-                log.warning("findPendingBooks NOK " + ex.getMessage());
+        List<IsbnNumbers> numbers = accepted.isEmpty() ? List.of() : isbnNumberPool.take(accepted.size());
+        if (!allowMissing && numbers.size() < accepted.size()) {
+            isbnNumberPool.giveBack(numbers);
+            throw new NumbersUnavailableException();
+        }
+        int next = 0;
+        List<Book> persisted = new ArrayList<>(numbers.size());
+        for (int i = 0; i < registrations.size(); i++) {
+            if (registrations.get(i) != null) {
+                continue;
+            }
+            Book book = accepted.get(next);
+            if (next < numbers.size()) {
+                book.isbn13 = numbers.get(next).getIsbn13();
+                book.isbn10 = numbers.get(next).getIsbn10();
+                // Inserts are grouped in JDBC batches at flush time
+                Book.persist(book);
+                persisted.add(book);
+                bookChanged.fire(BookChangedEvent.created(book));
+                registrations.set(i, BookRegistration.created(book.id));
+            } else {
+                registrations.set(i, BookRegistration.pending());
             }
+            next++;
         }
 
-        return builder.build();
+        try {
+            Book.flush();
+        } catch (PersistenceException ex) {
+            if (!isDuplicateViolation(ex)) {
+                throw ex;
+            }
+            // Rolled back: the books can be registered again, their numbers are not lost
+            isbnNumberPool.giveBack(numbers.subList(0, persisted.size()));
+            for (Book book : persisted) {
+                book.id = null;
+                book.version = 0;
+                book.isbn13 = null;
+                book.isbn10 = null;
+            }
+            if (persisted.size() == 1) {
+                bookDuplicationCount.inc();
+            }
+            throw new DuplicateBookException("A book of the chunk is already registered");
+        }
+        return registrations;
+    }
+
+    private Set<String> findRegisteredKeys(List<Book> books) {
+        Set<String> authors = new HashSet<>();
+        Set<String> titleKeys = new HashSet<>();
+        for (Book book : books) {
+            String titleKey = Book.normalizeTitle(book.title);
+            if (duplicateFilter.mightContain(book.author, titleKey)) {
+                authors.add(book.author);
+                titleKeys.add(titleKey);
+            }
+        }
+        if (authors.isEmpty()) {
+            return new HashSet<>();
+        }
+        return Book.getEntityManager()
+                .createQuery("select b.author, b.titleKey from Book b where b.author in :authors and b.titleKey in :titleKeys", Object[].class)
+                .setParameter("authors", authors)
+                .setParameter("titleKeys", titleKeys)
+                .getResultStream()
+                .map(row -> duplicateKey((String) row[0], (String) row[1]))
+                .collect(Collectors.toCollection(HashSet::new));
+    }
+
+    private static String duplicateKey(String author, String titleKey) {
+        return author + '\u0000' + titleKey;
+    }
+
+    // We have no ISBN numbers, we cannot persist in the database
+    // Book data is stored in the pending journal for later processing
+    private Book fallbackPersistBook(Book book) {
+        pendingStore.add(book);
+        throw new NumbersUnavailableException();
+    }
+
+    // Answered by the in-memory index of the pending books, the journal is not read
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public long[] findPendingOffsets(long after, int limit) {
+        return pendingStore.offsetsAfter(after, limit);
+    }
+
+    // JSON of the pending books, as accepted
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public void streamPendingBooks(long[] offsets, Consumer<byte[]> consumer) {
+        pendingStore.forEach(offsets, consumer);
+    }
+
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public long countPendingBooks() {
+        return pendingStore.count();
+    }
+
+    // Keyset pagination: no OFFSET, the cost of a page does not depend on its position
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public List<Book> findBooksAfter(long after, int limit) {
+        return Book.<Book>find("id > ?1", Sort.by("id"), after).range(0, limit - 1).list();
+    }
+
+    // Books are read through a JDBC cursor and detached once consumed to keep heap usage flat
+    public void streamAllBooks(Consumer<Book> consumer) {
+        var em = Book.getEntityManager();
+        try (var books = Book.<Book>findAll(Sort.by("id"))
+                .withHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize)
+                .withHint(QueryHints.HINT_READONLY, true)
+                .stream()) {
+            books.forEach(book -> {
+                consumer.accept(book);
+                em.detach(book);
+            });
+        }
     }
 
     @Transactional(Transactional.TxType.SUPPORTS)
-    public List<Book> findAllBooks() {
-        return Book.listAll();
+    public List<Object[]> findProjectedBooksAfter(BookProjection projection, long after, int limit) {
+        return Book.getEntityManager()
+                .createQuery(projection.query("where b.id > ?1 order by b.id"), Object[].class)
+                .setParameter(1, after)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    // Projected rows are not entities: nothing to detach
+    public void streamProjectedBooks(BookProjection projection, Consumer<Object[]> consumer) {
+        try (var rows = Book.getEntityManager()
+                .createQuery(projection.query("order by b.id"), Object[].class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .getResultStream()) {
+            rows.forEach(consumer);
+        }
     }
 
+    // Read from memory: scrapes and /count do not reach the database
     @Gauge(name = "total_book_count", description = "Total count of books", unit = MetricUnits.NONE, absolute = true, tags = {
             "version=tnt-2022", "author=jefrajames" })
+    @Transactional(Transactional.TxType.SUPPORTS)
     public long count() {
-        return Book.count();
+        return bookCounter.get();
     }
 
+    // Served from the cache, the database is only read on a miss
     @Transactional(Transactional.TxType.SUPPORTS)
     public Optional<Book> findBookById(Long id) {
-        return Book.findByIdOptional(id);
+        return bookCache.get(id, key -> {
+            Optional<Book> book = Book.findByIdOptional(key);
+            book.ifPresent(loaded -> idIndex.putVersion(key, loaded.version));
+            return book;
+        });
     }
 
-    // To be tested
-    public Book updateBook(@Valid Book book) {
-        book.persist();
-        return book;
+    // A cached book is projected as it is, otherwise only the projected columns are read.
+    // The version read is not put in the index: outside the cache loader, it could overwrite a newer change
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public Optional<Object[]> findProjectedBook(BookProjection projection, long id) {
+        Optional<Book> cached = bookCache.getIfPresent(id);
+        if (cached.isPresent()) {
+            return Optional.of(projection.row(cached.get()));
+        }
+        return Book.getEntityManager()
+                .createQuery(projection.query("where b.id = ?1"), Object[].class)
+                .setParameter(1, id)
+                .getResultStream()
+                .findFirst();
+    }
+
+    // One query, in the order of the identifiers. Also called by background threads: a transaction is started
+    public List<Book> findBooksByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, Book> found = Book.<Book>list("id in ?1", ids).stream()
+                .collect(Collectors.toMap(book -> book.id, book -> book));
+        return ids.stream().map(found::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    // Empty when the version is not known without loading the book
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public OptionalLong findBookVersion(Long id) {
+        return idIndex.version(id);
+    }
+
+    // Changes on every committed change of any book, the same on all the instances
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public long catalogVersion() {
+        return catalogVersion.get();
+    }
+
+    // The book must carry the version it was read with: a concurrent update in between is a conflict.
+    // Changes are then copied to the managed book, its version is checked again and incremented on flush
+    @Transactional(value = Transactional.TxType.REQUIRED, rollbackOn = DuplicateBookException.class)
+    public Optional<Book> updateBook(@Valid Book book) throws DuplicateBookException {
+        Optional<Book> found = Book.findByIdOptional(book.id);
+        if (found.isEmpty()) {
+            return found;
+        }
+
+        Book managed = found.get();
+        if (book.version != managed.version) {
+            throw new OptimisticLockException("Book " + book.id + " updated in between, version " + managed.version + " expected", null, managed);
+        }
+        managed.title = book.title;
+        managed.isbn13 = book.isbn13;
+        managed.isbn10 = book.isbn10;
+        managed.author = book.author;
+        managed.yearOfPublication = book.yearOfPublication;
+        managed.nbOfPages = book.nbOfPages;
+        managed.rank = book.rank;
+        managed.price = book.price;
+        managed.smallImageUrl = book.smallImageUrl;
+        managed.mediumImageUrl = book.mediumImageUrl;
+        managed.description = book.description;
+        try {
+            Book.flush();
+        } catch (PersistenceException ex) {
+            if (isDuplicateViolation(ex)) {
+                throw duplicateBook(managed);
+            }
+            throw ex;
+        }
+        bookChanged.fire(BookChangedEvent.updated(managed));
+        return found;
     }
 
     // To be tested
     public void deleteBook(Long id) {
-        Book.deleteById(id);
+        if (Book.deleteById(id)) {
+            bookChanged.fire(BookChangedEvent.deleted(id));
+        }
     }
 
+    // Random identifier from the in-memory index then primary key lookup: no count, no OFFSET
     @Transactional(Transactional.TxType.SUPPORTS)
-    public Book findRandomBook() {
-        Book randomBook = null;
-        while (randomBook == null) {
-            randomBook = Book.findRandom();
+    public Optional<Book> findRandomBook() {
+        for (int attempt = 0; attempt < RANDOM_BOOK_ATTEMPTS; attempt++) {
+            OptionalLong id = idIndex.randomId();
+            if (id.isEmpty()) {
+                return Optional.empty();
+            }
+            Optional<Book> book = Book.findByIdOptional(id.getAsLong());
+            if (book.isPresent()) {
+                return book;
+            }
+            // Stale identifier, the book has been deleted in the meantime
+            idIndex.remove(id.getAsLong());
+        }
+        return Optional.empty();
+    }
+
+    @Transactional(Transactional.TxType.SUPPORTS)
+    public Optional<Object[]> findRandomProjectedBook(BookProjection projection) {
+        for (int attempt = 0; attempt < RANDOM_BOOK_ATTEMPTS; attempt++) {
+            OptionalLong id = idIndex.randomId();
+            if (id.isEmpty()) {
+                return Optional.empty();
+            }
+            Optional<Object[]> row = findProjectedBook(projection, id.getAsLong());
+            if (row.isPresent()) {
+                return row;
+            }
+            idIndex.remove(id.getAsLong());
         }
-        return randomBook;
+        return Optional.empty();
     }
 
 }
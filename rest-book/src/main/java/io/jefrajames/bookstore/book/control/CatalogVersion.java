@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.persistence.FlushModeType;
+import javax.sql.DataSource;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import io.jefrajames.bookstore.book.control.cache.BookCacheBroadcast;
+import io.jefrajames.bookstore.book.entity.BookCatalog;
+import io.quarkus.runtime.StartupEvent;
+import lombok.Value;
+
+/**
+ * Version of the whole catalog, the same for all the instances.
+ *
+ * Each transaction changing books increments the book_catalog row, once,
+ * before it commits: the new version is visible exactly when the changes are.
+ * It is seeded from the time the database was loaded, so that it also
+ * changes when the database is loaded again.
+ *
+ * The version is read again from the database after each committed change
+ * seen by this instance, local or notified by another one.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+public class CatalogVersion implements BookCacheBroadcast.Listener {
+
+    @Value
+    private static class Read {
+
+        // Changes seen when the version was read
+        long changes;
+
+        long version;
+    }
+
+    @Inject
+    TransactionSynchronizationRegistry transactions;
+
+    @Inject
+    DataSource dataSource;
+
+    @Inject
+    BookCacheBroadcast broadcast;
+
+    private final AtomicLong changes = new AtomicLong();
+
+    private volatile Read last;
+
+    void onStart(@Observes StartupEvent event) {
+        broadcast.subscribe(this);
+    }
+
+    // Held until the commit: changing transactions are serialized on the row, keep them short.
+    // Pending books are not flushed, the caller flushes them when it is ready to handle violations
+    void onBookChanging(@Observes(during = TransactionPhase.IN_PROGRESS) BookChangedEvent event) {
+        if (transactions.getResource(CatalogVersion.class) == null) {
+            transactions.putResource(CatalogVersion.class, Boolean.TRUE);
+            BookCatalog.getEntityManager()
+                    .createQuery("update BookCatalog set version = version + 1 where id = :id")
+                    .setParameter("id", BookCatalog.ID)
+                    .setFlushMode(FlushModeType.COMMIT)
+                    .executeUpdate();
+        }
+    }
+
+    void onBookChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) BookChangedEvent event) {
+        changes.incrementAndGet();
+    }
+
+    @Override
+    public void changed(long id, BookChangedEvent.Type type) {
+        changes.incrementAndGet();
+    }
+
+    @Override
+    public void reset() {
+        changes.incrementAndGet();
+    }
+
+    /**
+     * The version read after the last change seen, without reaching the
+     * database in between.
+     */
+    public long get() {
+        long seen = changes.get();
+        Read read = last;
+        if (read == null || read.changes != seen) {
+            synchronized (this) {
+                read = last;
+                if (read == null || read.changes != seen) {
+                    read = new Read(seen, read());
+                    last = read;
+                }
+            }
+        }
+        return read.version;
+    }
+
+    /**
+     * The committed version, always read from the database.
+     */
+    public long read() {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement("select version from book_catalog where id = ?")) {
+            statement.setInt(1, BookCatalog.ID);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    throw new IllegalStateException("No book_catalog row, see import.sql");
+                }
+                return rs.getLong(1);
+            }
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Catalog version not read: " + ex.getMessage(), ex);
+        }
+    }
+
+}
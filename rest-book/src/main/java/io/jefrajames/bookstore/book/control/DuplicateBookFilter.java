@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.transaction.Transactional;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.jpa.QueryHints;
+
+import io.jefrajames.bookstore.book.entity.Book;
+import io.quarkus.runtime.StartupEvent;
+import lombok.extern.java.Log;
+
+/**
+ * Bloom filter of the (author, normalized title) pairs already registered.
+ *
+ * A negative answer is certain: the duplicate query can be skipped. A positive
+ * answer may be wrong (false-positive rate configured) and must be confirmed by
+ * the database. Deleted books are not removed, they only cause extra queries.
+ *
+ * The unique constraint on the books table remains the final guard.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class DuplicateBookFilter {
+
+    @ConfigProperty(name = "book.duplicate.filter.expected-books", defaultValue = "1000000")
+    int expectedBooks;
+
+    @ConfigProperty(name = "book.duplicate.filter.false-positive-rate", defaultValue = "0.01")
+    double falsePositiveRate;
+
+    AtomicLongArray bits;
+
+    long bitCount;
+
+    int hashCount;
+
+    // Until loaded, every pair is reported as possibly registered
+    volatile boolean loaded;
+
+    @PostConstruct
+    void postConstruct() {
+        double ln2 = Math.log(2);
+        long words = Math.max(1, (long) Math.ceil(-expectedBooks * Math.log(falsePositiveRate) / (ln2 * ln2) / Long.SIZE));
+        bits = new AtomicLongArray(Math.toIntExact(words));
+        bitCount = words * Long.SIZE;
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedBooks * ln2));
+    }
+
+    @Transactional
+    void onStart(@Observes StartupEvent event) {
+        try (var pairs = Book.getEntityManager()
+                .createQuery("select b.author, b.titleKey from Book b", Object[].class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, 10_000)
+                .getResultStream()) {
+            pairs.forEach(pair -> put((String) pair[0], (String) pair[1]));
+        }
+        loaded = true;
+        log.info("Duplicate book filter loaded with " + bitCount + " bits and " + hashCount + " hash functions");
+    }
+
+    void onBookChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) BookChangedEvent event) {
+        if (event.getBook() != null) {
+            put(event.getBook().author, Book.normalizeTitle(event.getBook().title));
+        }
+    }
+
+    public boolean mightContain(String author, String titleKey) {
+        if (!loaded) {
+            return true;
+        }
+        long hash = hash(author, titleKey);
+        long h1 = hash;
+        long h2 = mix(hash);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void put(String author, String titleKey) {
+        long hash = hash(author, titleKey);
+        long h1 = hash;
+        long h2 = mix(hash);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+    }
+
+    // FNV-1a over both strings, separated by a char that cannot appear in a key
+    private static long hash(String author, String titleKey) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, author);
+        hash = (hash ^ 0xFFFF) * 0x100000001b3L;
+        return fnv(hash, titleKey);
+    }
+
+    private static long fnv(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    // Murmur3 finalizer, gives the second hash of the double hashing scheme
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash | 1;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.cache;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.LongFunction;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.jefrajames.bookstore.book.control.BookChangedEvent;
+import io.jefrajames.bookstore.book.entity.Book;
+import lombok.extern.java.Log;
+
+/**
+ * Read-through cache of the books by identifier.
+ *
+ * Bounded by size and by time since loading. Entries are invalidated once a
+ * change is committed, locally and on the other instances through the
+ * BookCacheBroadcast. The time bound covers the notifications that could be
+ * lost.
+ *
+ * Unknown identifiers are not cached.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class BookCache implements BookCacheBroadcast.Listener {
+
+    @Inject
+    BookCacheBroadcast broadcast;
+
+    @ConfigProperty(name = "book.cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "book.cache.maximum-size", defaultValue = "10000")
+    long maximumSize;
+
+    @ConfigProperty(name = "book.cache.expire-after-write", defaultValue = "10m")
+    Duration expireAfterWrite;
+
+    Cache<Long, Book> cache;
+
+    @PostConstruct
+    void postConstruct() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        broadcast.subscribe(this);
+    }
+
+    // The loader is only called on a miss, concurrent misses on the same book share its result
+    public Optional<Book> get(long id, LongFunction<Optional<Book>> loader) {
+        if (!enabled) {
+            return loader.apply(id);
+        }
+        return Optional.ofNullable(cache.get(id, key -> loader.apply(key).orElse(null)));
+    }
+
+    // Never loads: empty on a miss
+    public Optional<Book> getIfPresent(long id) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cache.getIfPresent(id));
+    }
+
+    public void invalidate(long id) {
+        cache.invalidate(id);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    void onBookChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) BookChangedEvent event) {
+        invalidate(event.getId());
+        broadcast.publish(event.getId(), event.getType());
+    }
+
+    @Override
+    public void changed(long id, BookChangedEvent.Type type) {
+        invalidate(id);
+    }
+
+    @Override
+    public void reset() {
+        invalidateAll();
+        log.info("Book cache cleared");
+    }
+
+    @Gauge(name = "book_cache_size", description = "Books in the cache", unit = MetricUnits.NONE, absolute = true)
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    @Gauge(name = "book_cache_hit_count", description = "Books read from the cache", unit = MetricUnits.NONE, absolute = true)
+    public long hitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Gauge(name = "book_cache_miss_count", description = "Books loaded from the database", unit = MetricUnits.NONE, absolute = true)
+    public long missCount() {
+        return cache.stats().missCount();
+    }
+
+    @Gauge(name = "book_cache_eviction_count", description = "Books evicted by size or expiration", unit = MetricUnits.NONE, absolute = true)
+    public long evictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.cache;
+
+import io.jefrajames.bookstore.book.control.BookChangedEvent;
+
+/**
+ * Tells the other rest-book instances which books have changed, so that they
+ * drop them from their BookCache.
+ *
+ * @author jefrajames
+ */
+public interface BookCacheBroadcast {
+
+    interface Listener {
+
+        // A book has been created, updated or deleted by another instance
+        void changed(long id, BookChangedEvent.Type type);
+
+        // Changes may have been missed, everything must be reloaded
+        void reset();
+    }
+
+    // Called once the change has been committed
+    void publish(long id, BookChangedEvent.Type type);
+
+    void subscribe(Listener listener);
+
+    // Datasource connections held for good, not available to the requests
+    default int heldConnections() {
+        return 0;
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.json.bind.Jsonb;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import io.jefrajames.bookstore.book.control.BookChangedEvent;
+import io.jefrajames.bookstore.book.control.BookService;
+import io.jefrajames.bookstore.book.control.CatalogVersion;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.runtime.configuration.MemorySize;
+import lombok.Value;
+import lombok.extern.java.Log;
+
+/**
+ * The whole catalog serialized once as a JSON array, kept as raw and gzip
+ * bytes to be written as is by GET /books.
+ *
+ * Rebuilt in the background after each committed change, local or notified by
+ * another instance, and when a reader sees that the catalog version has moved.
+ * Only one rebuild runs at a time: changes made meanwhile are gathered in the
+ * next one. Readers never wait, they get the previous snapshot until the new
+ * one is ready, with its own version.
+ *
+ * A catalog larger than the maximum size is not kept: it is streamed from the
+ * database as before.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class CatalogSnapshot implements BookCacheBroadcast.Listener {
+
+    @Value
+    public static class Snapshot {
+
+        // Catalog version read before the books
+        long version;
+
+        byte[] json;
+
+        byte[] gzip;
+    }
+
+    // Thrown to stop reading the books, without stack trace
+    private static final class TooLargeException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    @Inject
+    BookService service;
+
+    @Inject
+    CatalogVersion catalogVersion;
+
+    @Inject
+    BookCacheBroadcast broadcast;
+
+    @Inject
+    Jsonb jsonb;
+
+    @ConfigProperty(name = "book.catalog.snapshot.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "book.catalog.snapshot.max-size", defaultValue = "64M")
+    MemorySize maxSize;
+
+    private volatile Snapshot current;
+
+    // Version not kept because too large or failed, not tried again until the catalog changes
+    private volatile long skippedVersion = NONE;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private final AtomicBoolean stale = new AtomicBoolean();
+
+    private final LongAdder rebuilds = new LongAdder();
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    void postConstruct() {
+        if (!enabled) {
+            log.info("Catalog snapshot disabled, the catalog is streamed from the database");
+            return;
+        }
+        executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "catalog-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        broadcast.subscribe(this);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        requestRebuild();
+    }
+
+    void onBookChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) BookChangedEvent event) {
+        requestRebuild();
+    }
+
+    @Override
+    public void changed(long id, BookChangedEvent.Type type) {
+        requestRebuild();
+    }
+
+    @Override
+    public void reset() {
+        requestRebuild();
+    }
+
+    /**
+     * The last snapshot built, possibly older than the catalog: a rebuild is
+     * then requested, without waiting for it.
+     */
+    public Optional<Snapshot> get() {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Snapshot snapshot = current;
+        long version = catalogVersion.get();
+        if ((snapshot == null || snapshot.version != version) && version != skippedVersion) {
+            requestRebuild();
+        }
+        return Optional.ofNullable(snapshot);
+    }
+
+    // Single flight: a request made during a rebuild is served by one more rebuild once it is over
+    private void requestRebuild() {
+        if (executor == null) {
+            return;
+        }
+        stale.set(true);
+        if (rebuilding.compareAndSet(false, true)) {
+            executor.execute(this::rebuild);
+        }
+    }
+
+    private void rebuild() {
+        try {
+            while (stale.getAndSet(false)) {
+                build();
+            }
+        } finally {
+            rebuilding.set(false);
+        }
+        // Requested between the last check and the release
+        if (stale.get() && rebuilding.compareAndSet(false, true)) {
+            executor.execute(this::rebuild);
+        }
+    }
+
+    // Read from the database: the books read next are at least as recent
+    private void build() {
+        long version = catalogVersion.read();
+        long start = System.nanoTime();
+        try {
+            byte[] json = serialize();
+            current = new Snapshot(version, json, gzip(json));
+            skippedVersion = NONE;
+            rebuilds.increment();
+            log.fine(() -> "Catalog snapshot built in " + (System.nanoTime() - start) / 1_000_000 + " ms: "
+                    + json.length + " bytes, " + current.gzip.length + " gzipped");
+        } catch (TooLargeException ex) {
+            dropSnapshot(version, "Catalog larger than " + maxSize.asLongValue() + " bytes, it is streamed from the database");
+        } catch (RuntimeException | IOException ex) {
+            dropSnapshot(version, "Catalog snapshot not built, it is streamed from the database: " + ex);
+        }
+    }
+
+    // An older snapshot would be served for ever
+    private void dropSnapshot(long version, String message) {
+        if (skippedVersion == NONE) {
+            log.warning(message);
+        }
+        current = null;
+        skippedVersion = version;
+    }
+
+    // Same JSON as the streamed catalog
+    private byte[] serialize() {
+        long limit = maxSize.asLongValue();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        out.write('[');
+        service.streamAllBooks(book -> {
+            if (out.size() > 1) {
+                out.write(',');
+            }
+            byte[] bytes = jsonb.toJson(book).getBytes(StandardCharsets.UTF_8);
+            if (out.size() + bytes.length >= limit) {
+                throw new TooLargeException();
+            }
+            out.write(bytes, 0, bytes.length);
+        });
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    // Compressed once for all the readers: the best level is affordable
+    private static byte[] gzip(byte[] json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(json);
+        }
+        return out.toByteArray();
+    }
+
+    @Gauge(name = "catalog_snapshot_bytes", description = "Size of the JSON catalog snapshot", unit = MetricUnits.BYTES, absolute = true)
+    public long jsonSize() {
+        Snapshot snapshot = current;
+        return snapshot == null ? 0 : snapshot.json.length;
+    }
+
+    @Gauge(name = "catalog_snapshot_gzip_bytes", description = "Size of the gzipped catalog snapshot", unit = MetricUnits.BYTES, absolute = true)
+    public long gzipSize() {
+        Snapshot snapshot = current;
+        return snapshot == null ? 0 : snapshot.gzip.length;
+    }
+
+    @Gauge(name = "catalog_snapshot_rebuild_count", description = "Catalog snapshots built", unit = MetricUnits.NONE, absolute = true)
+    public long rebuildCount() {
+        return rebuilds.sum();
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import io.jefrajames.bookstore.book.control.BookChangedEvent;
+import io.quarkus.arc.DefaultBean;
+
+/**
+ * Broadcast limited to the current JVM: enough for a single instance and for
+ * tests.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@DefaultBean
+public class InMemoryBookCacheBroadcast implements BookCacheBroadcast {
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(long id, BookChangedEvent.Type type) {
+        listeners.forEach(listener -> listener.changed(id, type));
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+}
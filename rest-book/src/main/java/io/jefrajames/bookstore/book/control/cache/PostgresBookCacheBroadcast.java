@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.sql.DataSource;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import io.jefrajames.bookstore.book.control.BookChangedEvent;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.runtime.StartupEvent;
+import lombok.extern.java.Log;
+
+/**
+ * Broadcast through PostgreSQL LISTEN/NOTIFY: no other infrastructure than
+ * the database already shared by the instances.
+ *
+ * A dedicated connection, taken from the pool for the life of the
+ * application, listens to the channel and sends the notifications of this
+ * instance. Its own notifications are ignored. Listeners are reset after each
+ * (re)connection since notifications may have been missed.
+ *
+ * A notification is the identifier and the type of the change, e.g.
+ * "1042:CREATED".
+ *
+ * Selected at build time with book.cache.broadcast=postgres.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@IfBuildProperty(name = "book.cache.broadcast", stringValue = "postgres")
+@Log
+public class PostgresBookCacheBroadcast implements BookCacheBroadcast {
+
+    private static final String CHANNEL = "book_cache";
+
+    private static final long RECONNECT_DELAY_MS = 5_000;
+
+    @Inject
+    DataSource dataSource;
+
+    @ConfigProperty(name = "book.cache.broadcast.poll-interval", defaultValue = "0.1s")
+    Duration pollInterval;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final BlockingQueue<String> published = new LinkedBlockingQueue<>();
+
+    private volatile boolean running = true;
+
+    private Thread thread;
+
+    void onStart(@Observes StartupEvent event) {
+        thread = new Thread(this::listen, "book-cache-broadcast");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    void preDestroy() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.join(RECONNECT_DELAY_MS);
+        }
+    }
+
+    // Sent by the listening thread, the caller is never blocked by the database
+    @Override
+    public void publish(long id, BookChangedEvent.Type type) {
+        published.add(id + ":" + type);
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // The LISTEN connection
+    @Override
+    public int heldConnections() {
+        return 1;
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                PGConnection pg = connection.unwrap(PGConnection.class);
+                int pid = pg.getBackendPID();
+                listeners.forEach(Listener::reset);
+                log.info("Listening to book changes on channel " + CHANNEL);
+
+                while (running) {
+                    sendPublished(connection);
+                    PGNotification[] notifications = pg.getNotifications((int) pollInterval.toMillis());
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            if (notification.getPID() != pid) {
+                                received(notification.getParameter());
+                            }
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException ex) {
+                if (running) {
+                    log.warning("Book cache broadcast interrupted, reconnecting: " + ex.getMessage());
+                    try {
+                        Thread.sleep(RECONNECT_DELAY_MS);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // An identifier alone comes from an instance that does not send the type yet
+    private void received(String payload) {
+        int separator = payload.indexOf(':');
+        long id = Long.parseLong(separator < 0 ? payload : payload.substring(0, separator));
+        BookChangedEvent.Type type = separator < 0 ? BookChangedEvent.Type.UPDATED
+                : BookChangedEvent.Type.valueOf(payload.substring(separator + 1));
+        listeners.forEach(listener -> listener.changed(id, type));
+    }
+
+    // A change is removed from the queue once sent
+    private void sendPublished(Connection connection) throws SQLException {
+        if (published.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement statement = connection.prepareStatement("select pg_notify(?, ?)")) {
+            String change;
+            while ((change = published.peek()) != null) {
+                statement.setString(1, CHANNEL);
+                statement.setString(2, change);
+                statement.execute();
+                published.poll();
+            }
+        }
+    }
+
+}
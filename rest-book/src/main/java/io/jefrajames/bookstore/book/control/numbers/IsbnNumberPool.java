@@ -0,0 +1,170 @@
+// Copyright 2022 jefrajames
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// 
+//     http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.jefrajames.bookstore.book.control.numbers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import io.quarkus.scheduler.Scheduled;
+import lombok.extern.java.Log;
+
+/**
+ * Bounded pool of ISBN numbers generated in advance by the Numbers service.
+ * 
+ * Registering a book takes numbers from the pool without any remote call. The
+ * pool is refilled in the background up to the high watermark as soon as it
+ * goes under the low watermark.
+ * 
+ * When the pool is drained, numbers are requested directly to the Numbers
+ * service unless isbn.pool.fallback-direct-call is false.
+ * 
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class IsbnNumberPool {
+
+    @RestClient
+    @Inject
+    NumberClient numberClient;
+
+    @Inject
+    MetricRegistry mr;
+
+    @ConfigProperty(name = "isbn.pool.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "isbn.pool.low-watermark", defaultValue = "20")
+    int lowWatermark;
+
+    @ConfigProperty(name = "isbn.pool.high-watermark", defaultValue = "100")
+    int highWatermark;
+
+    @ConfigProperty(name = "isbn.pool.fallback-direct-call", defaultValue = "true")
+    boolean fallbackDirectCall;
+
+    BlockingQueue<IsbnNumbers> pool;
+
+    Counter poolEmptyCount;
+
+    @PostConstruct
+    void postConstruct() {
+
+        pool = new ArrayBlockingQueue<>(highWatermark);
+
+        Metadata md = Metadata
+                .builder()
+                .withName("isbn-pool-empty-count")
+                .withDescription("How many times the ISBN number pool was found empty")
+                .withType(MetricType.COUNTER)
+                .build();
+
+        poolEmptyCount = mr.counter(md);
+    }
+
+    public IsbnNumbers take() {
+
+        if (!enabled) {
+            return numberClient.generateIsbnNumbers();
+        }
+
+        IsbnNumbers numbers = pool.poll();
+        if (numbers != null) {
+            return numbers;
+        }
+
+        poolEmptyCount.inc();
+        if (fallbackDirectCall) {
+            return numberClient.generateIsbnNumbers();
+        }
+        throw new IllegalStateException("ISBN number pool drained");
+    }
+
+    // May return less numbers than requested when the Numbers service is not accessible
+    public List<IsbnNumbers> take(int count) {
+
+        List<IsbnNumbers> numbers = new ArrayList<>(count);
+        if (enabled) {
+            pool.drainTo(numbers, count);
+            if (numbers.size() == count) {
+                return numbers;
+            }
+            poolEmptyCount.inc();
+            if (!fallbackDirectCall) {
+                return numbers;
+            }
+        }
+
+        try {
+            numbers.addAll(numberClient.generateIsbnNumbersBatch(count - numbers.size()));
+        } catch (RuntimeException ex) {
+            log.warning("ISBN numbers batch request failed: " + ex.getMessage());
+        }
+        return numbers;
+    }
+
+    // Numbers taken for books finally not registered, dropped when the pool is full or disabled
+    public void giveBack(List<IsbnNumbers> numbers) {
+        if (!enabled) {
+            return;
+        }
+        for (IsbnNumbers taken : numbers) {
+            if (!pool.offer(taken)) {
+                break;
+            }
+        }
+    }
+
+    @Gauge(name = "isbn_pool_depth", description = "ISBN numbers available in the pool", unit = MetricUnits.NONE, absolute = true)
+    public int depth() {
+        return pool.size();
+    }
+
+    @Scheduled(every = "{isbn.pool.refill-interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void refill() {
+
+        if (!enabled || pool.size() > lowWatermark) {
+            return;
+        }
+
+        try {
+            // A single batch request up to the high watermark
+            for (IsbnNumbers numbers : numberClient.generateIsbnNumbersBatch(highWatermark - pool.size())) {
+                if (!pool.offer(numbers)) {
+                    break;
+                }
+            }
+        } catch (RuntimeException ex) {
+            // Numbers service not accessible, next attempt at next schedule
+            log.warning("ISBN number pool refill failed: " + ex.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.numbers;
+
+import static io.jefrajames.bookstore.protobuf.ProtobufMediaType.APPLICATION_PROTOBUF;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import io.jefrajames.bookstore.proto.BookNumbers;
+import io.jefrajames.bookstore.proto.BookNumbersBatch;
+
+/**
+ * Reads the BookNumbers and BookNumbersBatch messages of Numbers
+ * (/proto/numbers.proto), keeping only the ISBNs.
+ *
+ * @author jefrajames
+ */
+@Consumes(APPLICATION_PROTOBUF)
+public class IsbnNumbersProtobufReader implements MessageBodyReader<Object> {
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return IsbnNumbers.class.equals(type) || (List.class.equals(type) && genericType instanceof ParameterizedType
+                && IsbnNumbers.class.equals(((ParameterizedType) genericType).getActualTypeArguments()[0]));
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+
+        try {
+            if (IsbnNumbers.class.equals(type)) {
+                return isbns(BookNumbers.parseFrom(entityStream));
+            }
+            return BookNumbersBatch.parseFrom(entityStream).getNumbersList().stream()
+                    .map(IsbnNumbersProtobufReader::isbns)
+                    .collect(Collectors.toList());
+        } catch (InvalidProtocolBufferException ex) {
+            throw new ProcessingException("Invalid protobuf book numbers: " + ex.getMessage(), ex);
+        }
+    }
+
+    // ASIN and EANs are not used
+    private static IsbnNumbers isbns(BookNumbers message) {
+        IsbnNumbers numbers = new IsbnNumbers();
+        numbers.setIsbn10(message.getIsbn10());
+        numbers.setIsbn13(message.getIsbn13());
+        return numbers;
+    }
+
+}
@@ -14,24 +14,45 @@
 
 package io.jefrajames.bookstore.book.control.numbers;
 
+import static io.jefrajames.bookstore.protobuf.ProtobufMediaType.APPLICATION_PROTOBUF;
+
+import java.util.List;
+
 import javax.enterprise.context.ApplicationScoped;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
+import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
+import org.eclipse.microprofile.rest.client.annotation.RegisterProvider;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 
 /**
  * RestClient for Numbers
  * 
+ * The circuit breaker stops calling Numbers for a while when it fails,
+ * callers then get a CircuitBreakerOpenException straight away.
+ * 
+ * Numbers are asked as protobuf, smaller and cheaper to parse than JSON,
+ * which is still accepted.
+ * 
  * @author jefrajames
  */
 @ApplicationScoped
 @Path("/book") 
-@Produces(MediaType.APPLICATION_JSON) 
+// Numbers answers JSON to equally acceptable types
+@Produces({ APPLICATION_PROTOBUF, MediaType.APPLICATION_JSON + ";q=0.5" })
 @RegisterRestClient
+@RegisterProvider(IsbnNumbersProtobufReader.class)
+@CircuitBreaker(requestVolumeThreshold = 10, failureRatio = 0.5, delay = 5000)
 public interface NumberClient {
     @GET
     IsbnNumbers generateIsbnNumbers();
+
+    // One round trip for several numbers, count is capped by the Numbers service
+    @GET
+    @Path("/batch")
+    List<IsbnNumbers> generateIsbnNumbersBatch(@QueryParam("count") int count);
 }
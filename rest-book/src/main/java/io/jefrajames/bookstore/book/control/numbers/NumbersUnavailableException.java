@@ -0,0 +1,31 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.numbers;
+
+/**
+ * No ISBN numbers could be obtained: Numbers is down or its circuit is open.
+ *
+ * Worth retrying later, unlike the failures caused by the book itself.
+ *
+ * @author jefrajames
+ */
+public class NumbersUnavailableException extends IllegalStateException {
+
+    public NumbersUnavailableException() {
+        super("Numbers service not accessible");
+    }
+
+}
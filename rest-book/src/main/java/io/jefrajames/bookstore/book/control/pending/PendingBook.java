@@ -0,0 +1,42 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.pending;
+
+import io.jefrajames.bookstore.book.entity.Book;
+import lombok.Value;
+
+/**
+ * A book read from the pending store with its position in the journal.
+ *
+ * @author jefrajames
+ */
+@Value
+public class PendingBook {
+
+    long offset;
+
+    long nextOffset;
+
+    // When the book has been accepted (epoch millis)
+    long timestamp;
+
+    // JSON as accepted
+    byte[] payload;
+
+    // Null when the payload cannot be read as a book
+    Book book;
+
+}
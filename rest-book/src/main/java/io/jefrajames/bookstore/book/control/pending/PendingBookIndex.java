@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.pending;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of the pending books: journal offset and timestamp.
+ *
+ * Entries are kept sorted by offset in two primitive arrays (16 bytes per
+ * pending book). Books are removed from the head once registered, the head is
+ * only compacted when it takes half of the arrays.
+ *
+ * @author jefrajames
+ */
+class PendingBookIndex {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] offsets = new long[INITIAL_CAPACITY];
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+
+    private int head;
+
+    private int tail;
+
+    // Offsets before have been acknowledged
+    private long floor;
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return tail - head;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    OptionalLong oldestTimestamp() {
+        lock.readLock().lock();
+        try {
+            return head == tail ? OptionalLong.empty() : OptionalLong.of(timestamps[head]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Offsets greater than after, in order
+    long[] offsetsAfter(long after, int limit) {
+        lock.readLock().lock();
+        try {
+            int from = Arrays.binarySearch(offsets, head, tail, after);
+            from = from < 0 ? -from - 1 : from + 1;
+            return Arrays.copyOfRange(offsets, from, Math.min(tail, from + limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Appends are completed in offset order, concurrent callers may still race
+    void add(long offset, long timestamp) {
+        lock.writeLock().lock();
+        try {
+            if (offset < floor) {
+                // Already registered by the replay before being indexed
+                return;
+            }
+            if (tail == offsets.length) {
+                grow();
+            }
+            int pos = tail;
+            if (tail > head && offsets[tail - 1] > offset) {
+                pos = Arrays.binarySearch(offsets, head, tail, offset);
+                if (pos >= 0) {
+                    return;
+                }
+                pos = -pos - 1;
+                System.arraycopy(offsets, pos, offsets, pos + 1, tail - pos);
+                System.arraycopy(timestamps, pos, timestamps, pos + 1, tail - pos);
+            }
+            offsets[pos] = offset;
+            timestamps[pos] = timestamp;
+            tail++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Removes the entries before this offset, they have been acknowledged
+    int removeBefore(long offset) {
+        lock.writeLock().lock();
+        try {
+            int to = Arrays.binarySearch(offsets, head, tail, offset);
+            to = to < 0 ? -to - 1 : to;
+            int removed = to - head;
+            head = to;
+            floor = Math.max(floor, offset);
+            if (head == tail) {
+                head = tail = 0;
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void grow() {
+        int size = tail - head;
+        if (head >= offsets.length / 2) {
+            // Reuse the space freed at the head
+            System.arraycopy(offsets, head, offsets, 0, size);
+            System.arraycopy(timestamps, head, timestamps, 0, size);
+        } else {
+            long[] newOffsets = new long[offsets.length * 2];
+            long[] newTimestamps = new long[offsets.length * 2];
+            System.arraycopy(offsets, head, newOffsets, 0, size);
+            System.arraycopy(timestamps, head, newTimestamps, 0, size);
+            offsets = newOffsets;
+            timestamps = newTimestamps;
+        }
+        head = 0;
+        tail = size;
+    }
+
+}
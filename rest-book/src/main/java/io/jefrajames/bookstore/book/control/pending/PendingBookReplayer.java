@@ -0,0 +1,228 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.pending;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Meter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.hibernate.exception.JDBCConnectionException;
+
+import io.jefrajames.bookstore.book.control.BookRegistrar;
+import io.jefrajames.bookstore.book.control.BookRegistration;
+import io.jefrajames.bookstore.book.control.numbers.NumbersUnavailableException;
+import io.jefrajames.bookstore.book.entity.Book;
+import io.quarkus.scheduler.Scheduled;
+import lombok.extern.java.Log;
+
+/**
+ * Registers the pending books in the background once Numbers is back.
+ *
+ * Pending books are read by batches in the order they have been accepted, at
+ * most pending.replay.max-rate books per second. A batch is registered in one
+ * transaction with the same duplicate rules as a single registration, then
+ * removed from the store. When ISBN numbers cannot be obtained (Numbers down,
+ * circuit open) or the database is not reachable, attempts are delayed with
+ * an exponential backoff.
+ *
+ * A batch failing for another reason is registered book by book: a book
+ * failing alone is moved to the dead letter journal, so that it does not
+ * block the books behind it.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class PendingBookReplayer {
+
+    @Inject
+    PendingBookStore store;
+
+    @Inject
+    BookRegistrar registrar;
+
+    @Inject
+    MetricRegistry mr;
+
+    @ConfigProperty(name = "pending.replay.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "pending.replay.interval", defaultValue = "5s")
+    Duration interval;
+
+    @ConfigProperty(name = "pending.replay.batch-size", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "pending.replay.max-rate", defaultValue = "500")
+    int maxRate;
+
+    @ConfigProperty(name = "pending.replay.max-backoff", defaultValue = "5m")
+    Duration maxBackoff;
+
+    Meter replayedBooks;
+
+    Meter deadLetterBooks;
+
+    Duration backoff = Duration.ZERO;
+
+    Instant nextAttempt = Instant.MIN;
+
+    @PostConstruct
+    void postConstruct() {
+
+        Metadata md = Metadata
+                .builder()
+                .withName("pending-replayed-books")
+                .withDescription("Pending books registered by the replay")
+                .withType(MetricType.METERED)
+                .build();
+
+        replayedBooks = mr.meter(md);
+
+        deadLetterBooks = mr.meter(Metadata
+                .builder()
+                .withName("pending-dead-letter-books")
+                .withDescription("Pending books moved to the dead letter journal")
+                .withType(MetricType.METERED)
+                .build());
+    }
+
+    @Gauge(name = "pending_books_backlog", description = "Count of books waiting for registration", unit = MetricUnits.NONE, absolute = true)
+    public long backlogSize() {
+        return store.count();
+    }
+
+    @Gauge(name = "pending_books_backlog_age", description = "Age of the oldest book waiting for registration", unit = MetricUnits.SECONDS, absolute = true)
+    public long backlogAge() {
+        return store.oldest().map(oldest -> Duration.between(oldest, Instant.now()).toSeconds()).orElse(0L);
+    }
+
+    @Gauge(name = "pending_books_dead_letter", description = "Count of books in the dead letter journal", unit = MetricUnits.NONE, absolute = true)
+    public long deadLetterSize() {
+        return store.deadLetterCount();
+    }
+
+    @Scheduled(every = "{pending.replay.interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void replay() {
+
+        if (!enabled || Instant.now().isBefore(nextAttempt)) {
+            return;
+        }
+
+        long budget = Math.max(1, maxRate * interval.toMillis() / 1000);
+        try {
+            while (budget > 0) {
+                List<PendingBook> batch = store.next((int) Math.min(batchSize, budget));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                replay(batch);
+                budget -= batch.size();
+            }
+            backoff = Duration.ZERO;
+        } catch (RuntimeException ex) {
+            // Transient failures, or the journal itself failing
+            backoff = backoff.isZero() ? interval : backoff.multipliedBy(2);
+            if (backoff.compareTo(maxBackoff) > 0) {
+                backoff = maxBackoff;
+            }
+            nextAttempt = Instant.now().plus(backoff);
+            log.warning("Pending books replay failed, next attempt in " + backoff + ": " + ex.getMessage());
+        }
+    }
+
+    private void replay(List<PendingBook> batch) {
+        try {
+            register(batch);
+        } catch (RuntimeException ex) {
+            if (isTransient(ex)) {
+                throw ex;
+            }
+            log.warning("Pending books batch failed, replayed book by book: " + ex);
+            for (PendingBook pending : batch) {
+                replayAlone(pending);
+            }
+        }
+    }
+
+    private void replayAlone(PendingBook pending) {
+        try {
+            register(List.of(pending));
+        } catch (RuntimeException ex) {
+            if (isTransient(ex)) {
+                throw ex;
+            }
+            log.severe("Pending book at offset " + pending.getOffset() + " moved to the dead letter journal: " + ex);
+            store.deadLetter(pending);
+            deadLetterBooks.mark();
+        }
+    }
+
+    // Numbers down, circuit open or database not reachable: the same books may succeed later
+    static boolean isTransient(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NumbersUnavailableException || cause instanceof JDBCConnectionException
+                    || cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            // Connection exception class
+            if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+                    && ((SQLException) cause).getSQLState().startsWith("08")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void register(List<PendingBook> batch) {
+
+        List<Book> books = new ArrayList<>(batch.size());
+        for (PendingBook pending : batch) {
+            if (pending.getBook() == null) {
+                throw new IllegalArgumentException("Pending book at offset " + pending.getOffset() + " cannot be read");
+            }
+            // Assigned by a rolled back attempt
+            pending.getBook().id = null;
+            pending.getBook().version = 0;
+            books.add(pending.getBook());
+        }
+
+        List<BookRegistration> registrations = registrar.registerPending(books);
+        store.remove(batch);
+
+        long created = registrations.stream().filter(r -> r.getStatus() == BookRegistration.Status.CREATED).count();
+        replayedBooks.mark(created);
+        if (created < batch.size()) {
+            log.info((batch.size() - created) + " pending books dropped as duplicates");
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.pending;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbException;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.jefrajames.bookstore.book.entity.Book;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.runtime.configuration.MemorySize;
+import lombok.extern.java.Log;
+
+/**
+ * Books accepted while no ISBN numbers were available, waiting to be
+ * registered.
+ *
+ * They are stored as JSON in a PendingJournal: durable once add() returns,
+ * concurrent additions share the same fsync. A PendingBookIndex, built at
+ * startup, answers counts and page lookups without reading the journal.
+ *
+ * Books that cannot be registered whatever the attempts are moved to a dead
+ * letter journal, to be looked at and replayed by hand.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class PendingBookStore {
+
+    @Inject
+    Jsonb jsonb;
+
+    @ConfigProperty(name = "pending.journal.directory", defaultValue = "pending-books")
+    String directory;
+
+    @ConfigProperty(name = "pending.journal.segment-size", defaultValue = "64M")
+    MemorySize segmentSize;
+
+    @ConfigProperty(name = "pending.journal.max-batch", defaultValue = "256")
+    int maxBatch;
+
+    @ConfigProperty(name = "pending.journal.dead-letter-directory", defaultValue = "pending-books-dead-letter")
+    String deadLetterDirectory;
+
+    PendingJournal journal;
+
+    PendingJournal deadLetters;
+
+    final AtomicLong deadLetterCount = new AtomicLong();
+
+    final PendingBookIndex index = new PendingBookIndex();
+
+    @PostConstruct
+    void postConstruct() {
+        try {
+            journal = new PendingJournal(Path.of(directory), segmentSize.asLongValue(), maxBatch);
+            // Books not yet registered when the application stopped
+            journal.forEach(journal.getCheckpoint(), record -> {
+                index.add(record.getOffset(), record.getTimestamp());
+                return true;
+            });
+            deadLetters = new PendingJournal(Path.of(deadLetterDirectory), segmentSize.asLongValue(), maxBatch);
+            deadLetters.forEach(deadLetters.getCheckpoint(), record -> {
+                deadLetterCount.incrementAndGet();
+                return true;
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @PreDestroy
+    void preDestroy() {
+        try {
+            journal.close();
+            deadLetters.close();
+        } catch (IOException ex) {
+            log.warning("Pending journal not properly closed: " + ex.getMessage());
+        }
+    }
+
+    // Books stored one file per book by previous versions are moved to the journal
+    void onStart(@Observes StartupEvent event) throws IOException {
+        try (var files = Files.list(Path.of("."))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith("book-") && name.endsWith(".json")) {
+                    long timestamp = Files.getLastModifiedTime(file).toMillis();
+                    long offset = journal.append(Files.readString(file, StandardCharsets.UTF_8).strip().getBytes(StandardCharsets.UTF_8), timestamp);
+                    index.add(offset, timestamp);
+                    Files.delete(file);
+                    log.info("Pending book " + name + " moved to the journal");
+                }
+            }
+        }
+    }
+
+    // Returns the offset identifying the pending book once it is durable
+    public long add(Book book) {
+        try {
+            long timestamp = System.currentTimeMillis();
+            long offset = journal.append(jsonb.toJson(book).getBytes(StandardCharsets.UTF_8), timestamp);
+            index.add(offset, timestamp);
+            return offset;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public long count() {
+        return index.size();
+    }
+
+    public Optional<Instant> oldest() {
+        OptionalLong timestamp = index.oldestTimestamp();
+        return timestamp.isPresent() ? Optional.of(Instant.ofEpochMilli(timestamp.getAsLong())) : Optional.empty();
+    }
+
+    // The oldest pending books, in the order they have been added
+    public List<PendingBook> next(int max) {
+        List<PendingBook> books = new ArrayList<>(max);
+        try {
+            journal.forEach(journal.getCheckpoint(), record -> {
+                books.add(new PendingBook(record.getOffset(), record.getNextOffset(), record.getTimestamp(), record.getPayload(),
+                        readBook(record.getPayload(), record.getOffset())));
+                return books.size() < max;
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return books;
+    }
+
+    private Book readBook(byte[] payload, long offset) {
+        try {
+            return jsonb.fromJson(new String(payload, StandardCharsets.UTF_8), Book.class);
+        } catch (JsonbException ex) {
+            log.warning("Pending book at offset " + offset + " cannot be read: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    // Moves the oldest book, as returned by next(), to the dead letter journal
+    public void deadLetter(PendingBook book) {
+        try {
+            deadLetters.append(book.getPayload(), book.getTimestamp());
+            deadLetterCount.incrementAndGet();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        remove(List.of(book));
+    }
+
+    public long deadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    // Removes processed books, they must be the oldest ones as returned by next()
+    public void remove(List<PendingBook> processed) {
+        if (processed.isEmpty()) {
+            return;
+        }
+        try {
+            long nextOffset = processed.get(processed.size() - 1).getNextOffset();
+            journal.acknowledge(nextOffset);
+            index.removeBefore(nextOffset);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Offsets of the pending books after this one (-1 for the first page)
+    public long[] offsetsAfter(long after, int limit) {
+        return index.offsetsAfter(after, limit);
+    }
+
+    // JSON of the pending books at these offsets, those registered in the meantime are skipped
+    public void forEach(long[] offsets, Consumer<byte[]> consumer) {
+        for (long offset : offsets) {
+            byte[] payload = read(offset);
+            if (payload != null) {
+                consumer.accept(payload);
+            }
+        }
+    }
+
+    private byte[] read(long offset) {
+        try {
+            if (offset < journal.getCheckpoint()) {
+                return null;
+            }
+            var record = journal.read(offset);
+            return record == null ? null : record.getPayload();
+        } catch (IOException | IllegalArgumentException ex) {
+            // Acknowledged while reading, its segment may have been deleted
+            if (offset < journal.getCheckpoint()) {
+                return null;
+            }
+            throw ex instanceof IOException ? new UncheckedIOException((IOException) ex) : (IllegalArgumentException) ex;
+        }
+    }
+
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.pending;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import lombok.Value;
+import lombok.extern.java.Log;
+
+/**
+ * Segmented append-only journal of length-prefixed records.
+ *
+ * A record is made of its payload length, a CRC32, a timestamp and the payload.
+ * It is identified by its offset: segments are contiguous, a segment file is
+ * named after the offset of its first record.
+ *
+ * Appends are group committed: callers only enqueue their record, a single
+ * writer thread writes all the queued records and makes them durable with one
+ * fsync. Segments roll when they reach their size. A checkpoint file keeps the
+ * offset of the first record not yet acknowledged, fully acknowledged segments
+ * are deleted.
+ *
+ * On opening, the last segment is truncated after its last valid record.
+ *
+ * @author jefrajames
+ */
+@Log
+public class PendingJournal implements Closeable {
+
+    // Payload length, CRC32 of timestamp and payload, timestamp
+    static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path directory;
+
+    private final long segmentSize;
+
+    private final int maxBatch;
+
+    private final ConcurrentNavigableMap<Long, FileChannel> segments = new ConcurrentSkipListMap<>();
+
+    private final BlockingQueue<Append> appends = new LinkedBlockingQueue<>();
+
+    private final Thread writer;
+
+    private volatile boolean open = true;
+
+    // Offset following the last durable record
+    private volatile long endOffset;
+
+    // Offset of the first record not acknowledged
+    private volatile long checkpoint;
+
+    // Only used by the writer thread once opened
+    private long activeBase;
+
+    private FileChannel active;
+
+    @Value
+    public static class JournalRecord {
+        long offset;
+        long timestamp;
+        byte[] payload;
+
+        public long getNextOffset() {
+            return offset + HEADER_SIZE + payload.length;
+        }
+    }
+
+    private static class Append {
+        final byte[] payload;
+        final long timestamp;
+        final CompletableFuture<Long> offset = new CompletableFuture<>();
+
+        Append(byte[] payload, long timestamp) {
+            this.payload = payload;
+            this.timestamp = timestamp;
+        }
+    }
+
+    public PendingJournal(Path directory, long segmentSize, int maxBatch) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBatch = maxBatch;
+
+        Files.createDirectories(directory);
+        checkpoint = readCheckpoint();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(base, FileChannel.open(file, READ, WRITE));
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            openSegment(checkpoint);
+        }
+        Map.Entry<Long, FileChannel> last = segments.lastEntry();
+        activeBase = last.getKey();
+        active = last.getValue();
+        endOffset = activeBase + recover(active);
+
+        writer = new Thread(this::writeLoop, "pending-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    // Completed once the record is durable
+    public CompletableFuture<Long> appendAsync(byte[] payload) {
+        return appendAsync(payload, System.currentTimeMillis());
+    }
+
+    public CompletableFuture<Long> appendAsync(byte[] payload, long timestamp) {
+        Append append = new Append(payload, timestamp);
+        if (!open) {
+            append.offset.completeExceptionally(new IOException("Journal closed"));
+            return append.offset;
+        }
+        appends.add(append);
+        // Closed meanwhile: the writer and close() may both have missed it, whoever removes it fails it
+        if (!open && appends.remove(append)) {
+            append.offset.completeExceptionally(new IOException("Journal closed"));
+        }
+        return append.offset;
+    }
+
+    public long append(byte[] payload) throws IOException {
+        return append(payload, System.currentTimeMillis());
+    }
+
+    public long append(byte[] payload, long timestamp) throws IOException {
+        try {
+            return appendAsync(payload, timestamp).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the journal");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    // Returns null when there is no record at this offset yet
+    public JournalRecord read(long offset) throws IOException {
+        if (offset >= endOffset) {
+            return null;
+        }
+        Map.Entry<Long, FileChannel> segment = segments.floorEntry(offset);
+        if (segment == null || offset < checkpoint) {
+            throw new IllegalArgumentException("Offset " + offset + " already acknowledged");
+        }
+        return readRecord(segment.getValue(), offset - segment.getKey(), offset);
+    }
+
+    // Reads the records not acknowledged, in order, until the visitor returns false
+    public void forEach(long from, RecordVisitor visitor) throws IOException {
+        long offset = Math.max(from, checkpoint);
+        JournalRecord record;
+        while ((record = read(offset)) != null && visitor.visit(record)) {
+            offset = record.getNextOffset();
+        }
+    }
+
+    @FunctionalInterface
+    public interface RecordVisitor {
+        boolean visit(JournalRecord record) throws IOException;
+    }
+
+    // All the records before this offset have been processed
+    public synchronized void acknowledge(long offset) throws IOException {
+        if (offset <= checkpoint) {
+            return;
+        }
+        if (offset > endOffset) {
+            throw new IllegalArgumentException("Offset " + offset + " after the end of the journal");
+        }
+
+        Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.allocate(Long.BYTES).putLong(0, offset), 0);
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(CHECKPOINT_FILE), ATOMIC_MOVE, REPLACE_EXISTING);
+        forceDirectory();
+        checkpoint = offset;
+
+        // Segments before the one holding the checkpoint are fully acknowledged
+        for (var segment : segments.headMap(segments.floorKey(offset)).entrySet()) {
+            segments.remove(segment.getKey());
+            segment.getValue().close();
+            Files.deleteIfExists(segmentPath(segment.getKey()));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        failPending(new IOException("Journal closed"));
+        for (FileChannel segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    private void writeLoop() {
+        List<Append> batch = new ArrayList<>(maxBatch);
+        while (open || !appends.isEmpty()) {
+            try {
+                Append first = appends.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    appends.drainTo(batch, maxBatch - 1);
+                    writeBatch(batch);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // One fsync for the whole batch (plus one per rolled segment)
+    private void writeBatch(List<Append> batch) {
+        int durable = 0;
+        long[] offsets = new long[batch.size()];
+        try {
+            long position = endOffset - activeBase;
+            for (int i = 0; i < batch.size(); i++) {
+                Append append = batch.get(i);
+                int recordSize = HEADER_SIZE + append.payload.length;
+                if (position > 0 && position + recordSize > segmentSize) {
+                    active.force(false);
+                    endOffset = activeBase + position;
+                    durable = complete(batch, offsets, durable, i);
+                    openSegment(endOffset);
+                    position = 0;
+                }
+                offsets[i] = activeBase + position;
+                position += writeRecord(active, position, append.timestamp, append.payload);
+            }
+            active.force(false);
+            endOffset = activeBase + position;
+            complete(batch, offsets, durable, batch.size());
+        } catch (IOException ex) {
+            log.severe("Pending journal write failed: " + ex.getMessage());
+            try {
+                // Drop the partial writes, they have not been acknowledged to anybody
+                active.truncate(endOffset - activeBase);
+            } catch (IOException truncateEx) {
+                log.severe("Pending journal truncate failed: " + truncateEx.getMessage());
+            }
+            for (int i = durable; i < batch.size(); i++) {
+                batch.get(i).offset.completeExceptionally(ex);
+            }
+        }
+    }
+
+    private static int complete(List<Append> batch, long[] offsets, int from, int to) {
+        for (int i = from; i < to; i++) {
+            batch.get(i).offset.complete(offsets[i]);
+        }
+        return to;
+    }
+
+    private void failPending(IOException cause) {
+        Append append;
+        while ((append = appends.poll()) != null) {
+            append.offset.completeExceptionally(cause);
+        }
+    }
+
+    private void openSegment(long base) throws IOException {
+        FileChannel segment = FileChannel.open(segmentPath(base), CREATE_NEW, READ, WRITE);
+        segments.put(base, segment);
+        activeBase = base;
+        active = segment;
+        forceDirectory();
+    }
+
+    // Makes created and renamed files durable
+    private void forceDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, READ)) {
+            dir.force(true);
+        } catch (IOException ex) {
+            // Not supported on every platform
+        }
+    }
+
+    private Path segmentPath(long base) {
+        return directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return 0L;
+        }
+        return ByteBuffer.wrap(Files.readAllBytes(file)).getLong();
+    }
+
+    // Returns the position following the last valid record and truncates the rest
+    private long recover(FileChannel segment) throws IOException {
+        long size = segment.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(segment, header, position);
+            int length = header.getInt(0);
+            if (length < 0 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(segment, payload, position + HEADER_SIZE);
+            if (crc(header.getLong(8), payload.array()) != header.getInt(4)) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+        if (position < size) {
+            log.warning("Pending journal truncated from " + size + " to " + position + " bytes");
+            segment.truncate(position);
+            segment.force(true);
+        }
+        return position;
+    }
+
+    private static JournalRecord readRecord(FileChannel segment, long position, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(segment, header, position);
+        int length = header.getInt(0);
+        long timestamp = header.getLong(8);
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(segment, payload, position + HEADER_SIZE);
+        if (crc(timestamp, payload.array()) != header.getInt(4)) {
+            throw new IOException("Corrupted pending journal record at offset " + offset);
+        }
+        return new JournalRecord(offset, timestamp, payload.array());
+    }
+
+    private static int writeRecord(FileChannel segment, long position, long timestamp, byte[] payload) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length)
+                .putInt(payload.length)
+                .putInt(crc(timestamp, payload))
+                .putLong(timestamp)
+                .put(payload);
+        record.flip();
+        writeFully(segment, record, position);
+        return record.limit();
+    }
+
+    private static int crc(long timestamp, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, timestamp));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of pending journal segment");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position() - start);
+        }
+    }
+
+}
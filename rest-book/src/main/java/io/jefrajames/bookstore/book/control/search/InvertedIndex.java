@@ -0,0 +1,298 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import io.jefrajames.bookstore.book.entity.Book;
+import lombok.Getter;
+import lombok.Value;
+
+/**
+ * Inverted index of the title, author and description of the books, ranked
+ * with BM25.
+ *
+ * Each indexed book gets the next ordinal, its postings are appended to the
+ * PostingList of its terms. An updated book gets a new ordinal, the previous
+ * one is marked as deleted: deleted ordinals are skipped by the searches and
+ * dropped when the index is rebuilt. A book is only replaced by a newer
+ * version, whatever the order the changes arrive in.
+ *
+ * Title and author terms count more than description ones: their frequency
+ * is weighted, as is the length of the book.
+ *
+ * @author jefrajames
+ */
+public class InvertedIndex {
+
+    static final int TITLE_WEIGHT = 3;
+
+    static final int AUTHOR_WEIGHT = 2;
+
+    static final int DESCRIPTION_WEIGHT = 1;
+
+    // BM25 term frequency saturation and length normalization
+    private static final float K1 = 1.2f;
+
+    private static final float B = 0.75f;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * A book analyzed out of the index lock: weighted frequency of each term.
+     */
+    public static final class Document {
+
+        @Getter
+        private final long id;
+
+        private final long version;
+
+        private final Map<String, Integer> frequencies = new HashMap<>();
+
+        private int length;
+
+        Document(long id, long version) {
+            this.id = id;
+            this.version = version;
+        }
+
+        void add(String text, int weight) {
+            TextAnalyzer.forEachTerm(text, term -> {
+                frequencies.merge(term, weight, Integer::sum);
+                length += weight;
+            });
+        }
+    }
+
+    @Value
+    public static class Hit {
+        long id;
+        float score;
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+
+    private final Map<Long, Integer> ordinals = new HashMap<>();
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+
+    private int[] lengths = new int[INITIAL_CAPACITY];
+
+    private long[] versions = new long[INITIAL_CAPACITY];
+
+    private final BitSet deleted = new BitSet();
+
+    private int nextOrdinal;
+
+    private int deletedCount;
+
+    private long totalLength;
+
+    public static Document analyze(Book book) {
+        return analyze(book.id, book.version, book.title, book.author, book.description);
+    }
+
+    public static Document analyze(long id, long version, String title, String author, String description) {
+        Document document = new Document(id, version);
+        document.add(title, TITLE_WEIGHT);
+        document.add(author, AUTHOR_WEIGHT);
+        document.add(description, DESCRIPTION_WEIGHT);
+        return document;
+    }
+
+    /**
+     * Adds the book, or replaces an older version.
+     *
+     * @return false if this version, or a newer one, is already indexed
+     */
+    public boolean put(Document document) {
+        lock.writeLock().lock();
+        try {
+            Integer previous = ordinals.get(document.id);
+            if (previous != null) {
+                if (versions[previous] >= document.version) {
+                    return false;
+                }
+                delete(previous);
+            }
+            int ordinal = nextOrdinal++;
+            if (ordinal == ids.length) {
+                ids = Arrays.copyOf(ids, ordinal * 2);
+                lengths = Arrays.copyOf(lengths, ordinal * 2);
+                versions = Arrays.copyOf(versions, ordinal * 2);
+            }
+            ids[ordinal] = document.id;
+            lengths[ordinal] = document.length;
+            versions[ordinal] = document.version;
+            totalLength += document.length;
+            ordinals.put(document.id, ordinal);
+            document.frequencies.forEach((term, frequency) -> postings.computeIfAbsent(term, t -> new PostingList()).add(ordinal, frequency));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.remove(id);
+            if (ordinal != null) {
+                delete(ordinal);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void delete(int ordinal) {
+        deleted.set(ordinal);
+        deletedCount++;
+        totalLength -= lengths[ordinal];
+    }
+
+    /**
+     * The best books for the terms of the query, any of them, best first.
+     *
+     * Postings are read in parallel, book by book: the score of a book is
+     * complete when it is offered to a heap holding the best hits so far.
+     */
+    public List<Hit> search(String query, int limit) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(TextAnalyzer.terms(query)));
+        if (terms.isEmpty() || limit < 1) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            int liveCount = ordinals.size();
+            if (liveCount == 0) {
+                return Collections.emptyList();
+            }
+            float averageLength = Math.max(1f, (float) totalLength / liveCount);
+            List<PostingList.Cursor> cursors = new ArrayList<>(terms.size());
+            float[] idfs = new float[terms.size()];
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list != null) {
+                    idfs[cursors.size()] = idf(list.documentCount(), nextOrdinal);
+                    cursors.add(list.cursor());
+                }
+            }
+
+            // Worst of the best hits at the head
+            PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1,
+                    (a, b) -> a.score != b.score ? Float.compare(a.score, b.score) : Long.compare(b.id, a.id));
+            while (true) {
+                int ordinal = Integer.MAX_VALUE;
+                for (PostingList.Cursor cursor : cursors) {
+                    ordinal = Math.min(ordinal, cursor.ordinal());
+                }
+                if (ordinal == Integer.MAX_VALUE) {
+                    break;
+                }
+                float score = 0;
+                float lengthNorm = K1 * (1 - B + B * lengths[ordinal] / averageLength);
+                for (int i = 0; i < cursors.size(); i++) {
+                    PostingList.Cursor cursor = cursors.get(i);
+                    if (cursor.ordinal() == ordinal) {
+                        int frequency = cursor.frequency();
+                        score += idfs[i] * frequency * (K1 + 1) / (frequency + lengthNorm);
+                        cursor.next();
+                    }
+                }
+                if (!deleted.get(ordinal) && (best.size() < limit || score > best.peek().score)) {
+                    best.offer(new Hit(ids[ordinal], score));
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+
+            List<Hit> hits = new ArrayList<>(best);
+            hits.sort(best.comparator().reversed());
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Never negative, even for terms found in most books
+    private static float idf(int documentCount, int bookCount) {
+        return (float) Math.log(1 + (bookCount - documentCount + 0.5) / (documentCount + 0.5));
+    }
+
+    // Indexed books, deleted ones excluded
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ordinals.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Ordinals of deleted or replaced books, still in the postings
+    public int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long postingBytes() {
+        lock.readLock().lock();
+        try {
+            return postings.values().stream().mapToLong(PostingList::byteSize).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Once built: the spare capacity of the posting lists is released
+    public void trim() {
+        lock.writeLock().lock();
+        try {
+            postings.values().forEach(PostingList::trim);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+}
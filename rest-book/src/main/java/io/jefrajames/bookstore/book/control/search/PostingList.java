@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.search;
+
+import java.util.Arrays;
+
+/**
+ * Books containing a term, as (book ordinal, term frequency) pairs sorted by
+ * ordinal.
+ *
+ * Ordinals are stored as the difference with the previous one, both numbers
+ * as variable length integers: most pairs take 2 bytes. Ordinals only grow,
+ * so a book is always appended.
+ *
+ * Not thread safe: guarded by the InvertedIndex.
+ *
+ * @author jefrajames
+ */
+final class PostingList {
+
+    private byte[] data = new byte[8];
+
+    private int size;
+
+    private int lastOrdinal = -1;
+
+    // Deleted books included, until the index is rebuilt
+    private int documentCount;
+
+    void add(int ordinal, int frequency) {
+        if (ordinal <= lastOrdinal) {
+            throw new IllegalArgumentException("Ordinal " + ordinal + " after " + lastOrdinal);
+        }
+        if (size + 10 > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + 10));
+        }
+        writeVarint(ordinal - lastOrdinal);
+        writeVarint(frequency);
+        lastOrdinal = ordinal;
+        documentCount++;
+    }
+
+    int documentCount() {
+        return documentCount;
+    }
+
+    // Bytes used by the postings
+    int byteSize() {
+        return size;
+    }
+
+    void trim() {
+        data = Arrays.copyOf(data, size);
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            data[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[size++] = (byte) value;
+    }
+
+    /**
+     * Reads the postings in order. ordinal() is Integer.MAX_VALUE once they
+     * have all been read.
+     */
+    final class Cursor {
+
+        private final int end = size;
+
+        private int position;
+
+        private int ordinal = -1;
+
+        private int frequency;
+
+        Cursor() {
+            next();
+        }
+
+        int ordinal() {
+            return ordinal;
+        }
+
+        int frequency() {
+            return frequency;
+        }
+
+        void next() {
+            if (position >= end) {
+                ordinal = Integer.MAX_VALUE;
+                return;
+            }
+            ordinal += readVarint();
+            frequency = readVarint();
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+}
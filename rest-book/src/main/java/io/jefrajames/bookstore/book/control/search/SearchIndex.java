@@ -0,0 +1,261 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.control.search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import io.jefrajames.bookstore.book.control.BookChangedEvent;
+import io.jefrajames.bookstore.book.control.BookService;
+import io.jefrajames.bookstore.book.control.cache.BookCacheBroadcast;
+import io.jefrajames.bookstore.book.entity.Book;
+import io.quarkus.runtime.StartupEvent;
+import lombok.extern.java.Log;
+
+/**
+ * Full-text search over the title, author and description of the books.
+ *
+ * The InvertedIndex is built at startup: books are read in chunks, each chunk
+ * is analyzed on all cores. It is kept current by observing committed
+ * BookChangedEvent, and by reloading the books changed by other instances.
+ *
+ * Once replaced or deleted books take a quarter of the index, a new one is
+ * built in the background and swapped. Changes made meanwhile are applied to
+ * both.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class SearchIndex implements BookCacheBroadcast.Listener {
+
+    // Below, rebuilding costs more than skipping the deleted books
+    private static final int MIN_DELETED_TO_REBUILD = 1024;
+
+    @Inject
+    BookService service;
+
+    @Inject
+    BookCacheBroadcast broadcast;
+
+    @ConfigProperty(name = "book.search.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "book.search.rebuild-chunk-size", defaultValue = "2048")
+    int chunkSize;
+
+    private volatile InvertedIndex index = new InvertedIndex();
+
+    // Guards the swap of the index with the changes applied during a rebuild
+    private final Object swapLock = new Object();
+
+    private boolean rebuilding;
+
+    private final Set<Long> changedDuringRebuild = new HashSet<>();
+
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean();
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    void postConstruct() {
+        if (!enabled) {
+            log.info("Book search disabled");
+            return;
+        }
+        executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        broadcast.subscribe(this);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (enabled) {
+            rebuild();
+        }
+    }
+
+    // Analyzed by the committing thread, before taking any lock
+    void onBookChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) BookChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        if (event.getType() == BookChangedEvent.Type.DELETED) {
+            apply(event.getId(), null);
+        } else {
+            apply(event.getId(), InvertedIndex.analyze(event.getBook()));
+        }
+    }
+
+    @Override
+    public void changed(long id, BookChangedEvent.Type type) {
+        if (executor != null) {
+            executor.execute(() -> reload(List.of(id)));
+        }
+    }
+
+    @Override
+    public void reset() {
+        requestRebuild();
+    }
+
+    /**
+     * Best matching books first, never waits for a rebuild.
+     */
+    public List<InvertedIndex.Hit> search(String query, int limit) {
+        return index.search(query, limit);
+    }
+
+    // A null document removes the book
+    private void apply(long id, InvertedIndex.Document document) {
+        InvertedIndex current;
+        synchronized (swapLock) {
+            current = index;
+            if (document == null) {
+                current.remove(id);
+            } else {
+                current.put(document);
+            }
+            if (rebuilding) {
+                changedDuringRebuild.add(id);
+            }
+        }
+        if (current.deletedCount() > Math.max(MIN_DELETED_TO_REBUILD, current.size() / 4)) {
+            requestRebuild();
+        }
+    }
+
+    // Books changed elsewhere, or during a rebuild: read again from the database
+    private void reload(List<Long> ids) {
+        try {
+            Map<Long, Book> books = service.findBooksByIds(ids).stream()
+                    .collect(Collectors.toMap(book -> book.id, Function.identity()));
+            for (Long id : ids) {
+                Book book = books.get(id);
+                apply(id, book == null ? null : InvertedIndex.analyze(book));
+            }
+        } catch (RuntimeException ex) {
+            log.warning("Books " + ids + " not reloaded in the search index: " + ex);
+        }
+    }
+
+    private void requestRebuild() {
+        if (executor != null && rebuildRequested.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                rebuildRequested.set(false);
+                rebuild();
+            });
+        }
+    }
+
+    private void rebuild() {
+        synchronized (swapLock) {
+            rebuilding = true;
+            changedDuringRebuild.clear();
+        }
+        long start = System.nanoTime();
+        InvertedIndex built = new InvertedIndex();
+        try {
+            load(built);
+        } catch (RuntimeException ex) {
+            synchronized (swapLock) {
+                rebuilding = false;
+                changedDuringRebuild.clear();
+            }
+            log.warning("Search index not rebuilt, the current one is kept: " + ex);
+            return;
+        }
+        built.trim();
+
+        List<Long> changed;
+        synchronized (swapLock) {
+            index = built;
+            rebuilding = false;
+            changed = new ArrayList<>(changedDuringRebuild);
+            changedDuringRebuild.clear();
+        }
+        // Possibly read before their change
+        if (!changed.isEmpty()) {
+            reload(changed);
+        }
+        log.info("Search index built in " + (System.nanoTime() - start) / 1_000_000 + " ms: " + built.size() + " books, "
+                + built.termCount() + " terms, " + built.postingBytes() / 1024 + " KB of postings");
+    }
+
+    private void load(InvertedIndex target) {
+        List<Book> chunk = new ArrayList<>(chunkSize);
+        service.streamAllBooks(book -> {
+            chunk.add(book);
+            if (chunk.size() == chunkSize) {
+                index(chunk, target);
+                chunk.clear();
+            }
+        });
+        index(chunk, target);
+    }
+
+    // Analysis is the costly part, it runs on all cores. Postings are then appended in order
+    private static void index(List<Book> books, InvertedIndex target) {
+        books.parallelStream()
+                .map(InvertedIndex::analyze)
+                .collect(Collectors.toList())
+                .forEach(target::put);
+    }
+
+    @Gauge(name = "search_index_size", description = "Books in the search index", unit = MetricUnits.NONE, absolute = true)
+    public long size() {
+        return index.size();
+    }
+
+    @Gauge(name = "search_index_term_count", description = "Distinct terms in the search index", unit = MetricUnits.NONE, absolute = true)
+    public long termCount() {
+        return index.termCount();
+    }
+
+    @Gauge(name = "search_index_posting_bytes", description = "Size of the compressed posting lists", unit = MetricUnits.BYTES, absolute = true)
+    public long postingBytes() {
+        return index.postingBytes();
+    }
+
+}
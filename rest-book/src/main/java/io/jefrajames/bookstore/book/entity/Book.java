@@ -15,18 +15,30 @@
  */
 package io.jefrajames.bookstore.book.entity;
 
-import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
 import java.math.BigDecimal;
 import java.net.URL;
-import java.util.Random;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import javax.json.bind.annotation.JsonbTransient;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.hibernate.annotations.ColumnDefault;
 
 /**
  * Main business entity.
@@ -35,7 +47,23 @@ import org.eclipse.microprofile.openapi.annotations.media.Schema;
  */
 @Schema(description = "Book representation")
 @Entity
-public class Book extends PanacheEntity {
+@Table(uniqueConstraints = @UniqueConstraint(name = Book.UNIQUE_AUTHOR_TITLE, columnNames = { "author", "title_key" }))
+public class Book extends PanacheEntityBase {
+
+    public static final String UNIQUE_AUTHOR_TITLE = "uk_book_author_title";
+
+    private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+
+    // Identifiers are allocated by blocks so that inserts can be batched
+    @Id
+    @SequenceGenerator(name = "book_seq", sequenceName = "book_seq", allocationSize = 50)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_seq")
+    public Long id;
+
+    // Incremented on each update, exposed as ETag: an update carries the version it was read with
+    @Version
+    @ColumnDefault("0")
+    public long version;
 
     @NotBlank
     @Schema(required = true)
@@ -72,10 +100,21 @@ public class Book extends PanacheEntity {
     @Size(min = 1, max = 10000)
     public String description;
 
-    public static Book findRandom() {
-        long countBooks = Book.count();
-        int randomBook = new Random().nextInt((int) countBooks);
-        return Book.findAll().page(randomBook, 1).firstResult();
+    // Normalized title used to detect duplicates, computed before insert and update
+    @JsonbTransient
+    @Schema(hidden = true)
+    @Column(name = "title_key")
+    public String titleKey;
+
+    @PrePersist
+    @PreUpdate
+    void computeTitleKey() {
+        titleKey = normalizeTitle(title);
+    }
+
+    // Same normalization as the update statement of import.sql
+    public static String normalizeTitle(String title) {
+        return title == null ? null : WHITESPACES.matcher(title).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
     }
 
 }
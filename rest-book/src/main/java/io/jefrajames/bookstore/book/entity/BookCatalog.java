@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.book.entity;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Single row holding the version of the whole catalog, shared by all the
+ * rest-book instances.
+ *
+ * @author jefrajames
+ */
+@Entity
+@Table(name = "book_catalog")
+public class BookCatalog extends PanacheEntityBase {
+
+    public static final int ID = 1;
+
+    @Id
+    public int id;
+
+    // Incremented by each transaction changing books, seeded in import.sql
+    public long version;
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.maintenance.boundary;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+import io.jefrajames.bookstore.maintenance.control.ConcurrencyLimiter;
+import io.quarkus.vertx.http.runtime.CurrentVertxRequest;
+import io.vertx.ext.web.RoutingContext;
+import lombok.extern.java.Log;
+
+/**
+ * Rejects requests over the adaptive concurrency limit with a fast 503.
+ *
+ * Runs after CheckMaintenanceFilter on the same resource classes, and
+ * measures their latency to adapt the limit.
+ *
+ * The permit is released when the HTTP response ends, whatever the outcome:
+ * JAX-RS response filters are skipped on unmapped exceptions.
+ *
+ * @author jefrajames
+ */
+@CheckMaintenance
+@Provider
+@Priority(Priorities.USER + 1)
+@Log
+public class ConcurrencyLimitFilter implements ContainerRequestFilter {
+
+    @Inject
+    ConcurrencyLimiter limiter;
+
+    @Inject
+    CurrentVertxRequest currentRequest;
+
+    @Override
+    public void filter(ContainerRequestContext context) throws IOException {
+        if (!limiter.isEnabled()) {
+            return;
+        }
+
+        String method = context.getMethod();
+        boolean write = !HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method) && !HttpMethod.OPTIONS.equals(method);
+        if (!limiter.tryAcquire(write)) {
+            log.warning("SERVICE_UNAVAILABLE, concurrency limit reached");
+            context.abortWith(
+                    Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                            .header(HttpHeaders.RETRY_AFTER, limiter.getRetryAfter())
+                            .entity("{\"reason\":\"Service currently overloaded\"}")
+                            .build()
+            );
+            return;
+        }
+
+        long startedAt = System.nanoTime();
+        AtomicBoolean released = new AtomicBoolean();
+        // Not the request scoped proxy: the end handler runs on the event loop, out of the request context
+        RoutingContext routingContext = currentRequest.getCurrent();
+        // Also called when the connection is closed before the end of the response
+        routingContext.addEndHandler(ended -> {
+            if (released.compareAndSet(false, true)) {
+                limiter.release(System.nanoTime() - startedAt, ended.failed() || routingContext.response().getStatusCode() >= 500);
+            }
+        });
+    }
+
+}
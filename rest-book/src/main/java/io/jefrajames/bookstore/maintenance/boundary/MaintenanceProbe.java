@@ -21,6 +21,8 @@ import org.eclipse.microprofile.health.HealthCheck;
 import org.eclipse.microprofile.health.HealthCheckResponse;
 import org.eclipse.microprofile.health.Readiness;
 
+import io.jefrajames.bookstore.maintenance.control.ConcurrencyLimiter;
+
 @Readiness
 public class MaintenanceProbe implements HealthCheck {
 
@@ -30,11 +32,19 @@ public class MaintenanceProbe implements HealthCheck {
     @Inject
     CheckMaintenanceFilter filter;
 
+    @Inject
+    ConcurrencyLimiter limiter;
+
     @Override
     public HealthCheckResponse call() {
+        // Not ready while shedding load, so that the load balancer moves traffic away
         return HealthCheckResponse.named("app.is.open")
                 .withData("changedAt", filter.getAppIsOpenChangedAt().toString())
-                .status(filter.isAppIsOpen())
+                .withData("concurrency.limit", limiter.getLimit())
+                .withData("concurrency.in-flight", limiter.getInFlight())
+                .withData("concurrency.rejected", limiter.getRejected())
+                .withData("shedding", limiter.isShedding())
+                .status(filter.isAppIsOpen() && !limiter.isShedding())
                 .build();
     }
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.maintenance.control;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/**
+ * Adaptive limit on the number of requests processed at the same time.
+ *
+ * AIMD driven by latency: the baseline is the lowest latency observed,
+ * slowly forgotten. While requests complete within a tolerance of the
+ * baseline and the limit is actually used, the limit grows by one per
+ * limit requests. A slower or failed request cuts it by the backoff ratio,
+ * at most once per latency so that one slow burst is one decrease.
+ *
+ * Writes are admitted up to a share of the limit only: they are shed first.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class ConcurrencyLimiter {
+
+    @Getter
+    @ConfigProperty(name = "limiter.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "limiter.initial-limit", defaultValue = "20")
+    int initialLimit;
+
+    @ConfigProperty(name = "limiter.min-limit", defaultValue = "4")
+    int minLimit;
+
+    @ConfigProperty(name = "limiter.max-limit", defaultValue = "200")
+    int maxLimit;
+
+    @ConfigProperty(name = "limiter.write-share", defaultValue = "0.8")
+    double writeShare;
+
+    @ConfigProperty(name = "limiter.tolerance", defaultValue = "2")
+    double tolerance;
+
+    @ConfigProperty(name = "limiter.backoff-ratio", defaultValue = "0.9")
+    double backoffRatio;
+
+    @ConfigProperty(name = "limiter.shedding-window", defaultValue = "5s")
+    Duration sheddingWindow;
+
+    @Getter
+    @ConfigProperty(name = "limiter.retry-after", defaultValue = "1")
+    int retryAfter;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile double limit;
+
+    private volatile long lastRejection;
+
+    private double baselineNanos = Double.MAX_VALUE;
+
+    private long lastDecrease;
+
+    @PostConstruct
+    void init() {
+        limit = initialLimit;
+        lastRejection = System.nanoTime() - sheddingWindow.toNanos();
+        lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * @return false if the request must be rejected
+     */
+    public boolean tryAcquire(boolean write) {
+        int max = Math.max(1, (int) (write ? limit * writeShare : limit));
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= max) {
+                rejected.increment();
+                lastRejection = System.nanoTime();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Ends a request admitted by tryAcquire.
+     */
+    public void release(long latencyNanos, boolean failed) {
+        int current = inFlight.getAndDecrement();
+        onSample(latencyNanos, failed, current);
+    }
+
+    private synchronized void onSample(long latencyNanos, boolean failed, int concurrency) {
+        // Lowest latency, drifting up slowly so that a lasting change of the workload becomes the norm
+        baselineNanos = latencyNanos < baselineNanos ? latencyNanos : baselineNanos + (latencyNanos - baselineNanos) / 1000;
+
+        long now = System.nanoTime();
+        if (failed || latencyNanos > baselineNanos * tolerance) {
+            if (now - lastDecrease > latencyNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecrease = now;
+            }
+        } else if (concurrency * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * True when requests have been rejected recently.
+     */
+    public boolean isShedding() {
+        return System.nanoTime() - lastRejection < sheddingWindow.toNanos();
+    }
+
+    @Gauge(name = "concurrency_limit", unit = MetricUnits.NONE, description = "Current adaptive concurrency limit", absolute = true)
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    @Gauge(name = "concurrency_in_flight", unit = MetricUnits.NONE, description = "Requests being processed", absolute = true)
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Gauge(name = "concurrency_rejected_total", unit = MetricUnits.NONE, description = "Requests rejected by the concurrency limit", absolute = true)
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+}
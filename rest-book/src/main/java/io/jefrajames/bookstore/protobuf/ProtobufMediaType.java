@@ -0,0 +1,36 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.protobuf;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Protocol Buffers media type, the compact alternative to JSON.
+ *
+ * The messages are described by the schemas published under /proto.
+ *
+ * @author jefrajames
+ */
+public final class ProtobufMediaType {
+
+    public static final String APPLICATION_PROTOBUF = "application/x-protobuf";
+
+    public static final MediaType APPLICATION_PROTOBUF_TYPE = new MediaType("application", "x-protobuf");
+
+    private ProtobufMediaType() {
+    }
+
+}
@@ -0,0 +1,72 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.book.boundary;
+
+import static io.jefrajames.bookstore.protobuf.ProtobufMediaType.APPLICATION_PROTOBUF_TYPE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.annotation.Annotation;
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.GenericType;
+
+import org.junit.jupiter.api.Test;
+
+import io.jefrajames.bookstore.book.entity.Book;
+
+public class BookProtobufProviderTest {
+
+    private static final Annotation[] NONE = new Annotation[0];
+
+    private final BookProtobufProvider provider = new BookProtobufProvider();
+
+    @Test
+    void shouldOnlyWriteBooks() {
+        assertTrue(provider.isWriteable(Book.class, Book.class, NONE, APPLICATION_PROTOBUF_TYPE));
+        assertTrue(provider.isWriteable(ArrayList.class, new GenericType<List<Book>>() {
+        }.getType(), NONE, APPLICATION_PROTOBUF_TYPE));
+
+        // Other elements, or an unknown element type, are left to the other writers
+        assertFalse(provider.isWriteable(ArrayList.class, new GenericType<List<Map<String, Object>>>() {
+        }.getType(), NONE, APPLICATION_PROTOBUF_TYPE));
+        assertFalse(provider.isWriteable(ArrayList.class, ArrayList.class, NONE, APPLICATION_PROTOBUF_TYPE));
+    }
+
+    @Test
+    void shouldMapMissingFields() throws MalformedURLException {
+        Book book = new Book();
+        book.title = "Understanding Quarkus";
+        book.price = new BigDecimal("44.90");
+        book.smallImageUrl = new URL("https://www.bookstore.io/small.png");
+
+        Book read = BookProtobufProvider.fromMessage(BookProtobufProvider.toMessage(book));
+        assertNull(read.id);
+        assertEquals(0, read.version);
+        assertEquals(book.title, read.title);
+        assertNull(read.author);
+        assertNull(read.yearOfPublication);
+        assertEquals("44.90", read.price.toPlainString());
+        assertEquals(book.smallImageUrl, read.smallImageUrl);
+        assertNull(read.mediumImageUrl);
+    }
+
+}
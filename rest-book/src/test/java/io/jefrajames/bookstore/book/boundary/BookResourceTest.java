@@ -13,30 +13,56 @@
 // limitations under the License.
 package io.jefrajames.bookstore.book.boundary;
 
+import static io.jefrajames.bookstore.protobuf.ProtobufMediaType.APPLICATION_PROTOBUF;
 import static io.restassured.RestAssured.given;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.CREATED;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.NOT_MODIFIED;
+import static javax.ws.rs.core.Response.Status.NO_CONTENT;
 import static javax.ws.rs.core.Response.Status.OK;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
+import javax.inject.Inject;
+import javax.sql.DataSource;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 
+import org.hamcrest.Matchers;
 import org.hamcrest.core.Is;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 
+import io.jefrajames.bookstore.book.client.MockNumberProxy;
+import io.jefrajames.bookstore.book.control.BookChangedEvent;
+import io.jefrajames.bookstore.book.control.BookIdIndex;
+import io.jefrajames.bookstore.book.control.cache.BookCacheBroadcast;
+import io.jefrajames.bookstore.book.control.numbers.IsbnNumberPool;
+import io.jefrajames.bookstore.book.control.numbers.IsbnNumbers;
 import io.jefrajames.bookstore.book.entity.Book;
+import io.jefrajames.bookstore.proto.Books;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.common.mapper.TypeRef;
+import io.restassured.response.ExtractableResponse;
+import io.restassured.response.Response;
 import lombok.extern.java.Log;
 
 @QuarkusTest
@@ -76,6 +102,18 @@ public class BookResourceTest {
         }
     }
 
+    @Inject
+    DataSource dataSource;
+
+    @Inject
+    IsbnNumberPool isbnNumberPool;
+
+    @Inject
+    BookIdIndex idIndex;
+
+    @Inject
+    BookCacheBroadcast broadcast;
+
     private static int nbBooks;
     private static String bookId;
 
@@ -93,6 +131,26 @@ public class BookResourceTest {
         nbBooks = books.size();
     }
 
+    // The catalog snapshot is rebuilt in the background after a change
+    private List<Book> awaitCatalog(int expectedSize) throws InterruptedException {
+        List<Book> books = List.of();
+        for (int i = 0; i < 50 && books.size() != expectedSize; i++) {
+            if (i > 0) {
+                Thread.sleep(100);
+            }
+            books = given()
+                    .when()
+                      .get("/api/books")
+                    .then()
+                      .statusCode(OK.getStatusCode())
+                      .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                      .extract()
+                      .body()
+                      .as(getBookTypeRef());
+        }
+        return books;
+    }
+
     private TypeRef<List<Book>> getBookTypeRef() {
         return new TypeRef<List<Book>>() {
         };
@@ -100,7 +158,7 @@ public class BookResourceTest {
 
     @Test
     @Order(2)
-    void shouldAddAnItem() {
+    void shouldAddAnItem() throws InterruptedException {
         Book book = new Book();
         book.title = DEFAULT_TITLE;
         book.author = DEFAULT_AUTHOR;
@@ -153,18 +211,676 @@ public class BookResourceTest {
                 .body("description", Is.is(DEFAULT_DESCRIPTION));
 
         // Checks there is an extra book in the database
-        List<Book> books = given()
+        assertEquals(nbBooks + 1, awaitCatalog(nbBooks + 1).size());
+
+        given()
+                .when()
+                  .get("/api/books/count")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("'book.count'", Is.is(nbBooks + 1));
+
+    }
+
+    @Test
+    @Order(3)
+    void shouldPageThroughBooks() {
+        ExtractableResponse<Response> firstPage = given()
+                .queryParam("limit", 2)
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .header("Link", Matchers.containsString("rel=\"next\""))
+                  .extract();
+        List<Book> first = firstPage.body().as(getBookTypeRef());
+        assertEquals(2, first.size());
+
+        List<Book> second = given()
+                .queryParam("after", first.get(1).id)
+                .queryParam("limit", 2)
                 .when()
                   .get("/api/books")
                 .then()
                   .statusCode(OK.getStatusCode())
-                  .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
                   .extract()
                   .body()
                   .as(getBookTypeRef());
+        assertEquals(2, second.size());
+        assertNotEquals(first.get(1).id, second.get(0).id);
+        assertTrue(first.get(1).id < second.get(0).id);
+
+        given()
+                .queryParam("limit", 0)
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(400);
+    }
+
+    @Test
+    @Order(4)
+    void shouldGetRandomBook() {
+        given()
+                .when()
+                  .get("/api/books/random")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                  .body("id", Matchers.notNullValue())
+                  .body("title", Matchers.notNullValue());
+    }
+
+    @Test
+    @Order(5)
+    void shouldAddItemsInBatch() {
+        Book first = new Book();
+        first.title = "Batch title 1";
+        first.author = DEFAULT_AUTHOR;
+        first.yearOfPublication = DEFAULT_YEAR_OF_PUBLICATION;
+        first.description = DEFAULT_DESCRIPTION;
+
+        Book second = new Book();
+        second.title = "Batch title 2";
+        second.author = DEFAULT_AUTHOR;
+        second.yearOfPublication = DEFAULT_YEAR_OF_PUBLICATION;
+        second.description = DEFAULT_DESCRIPTION;
+
+        // Already registered by shouldAddAnItem
+        Book duplicate = new Book();
+        duplicate.title = DEFAULT_TITLE;
+        duplicate.author = DEFAULT_AUTHOR;
+        duplicate.yearOfPublication = DEFAULT_YEAR_OF_PUBLICATION;
+        duplicate.description = DEFAULT_DESCRIPTION;
+
+        given()
+                .body(List.of(first, second, duplicate, first))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .when()
+                  .post("/api/books/batch")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("status", Matchers.contains("CREATED", "CREATED", "DUPLICATE", "DUPLICATE"))
+                  .body("[0].id", Matchers.notNullValue());
+    }
+
+    @Test
+    @Order(6)
+    void shouldRejectDuplicateItem() {
+        // Same author and same title once normalized
+        Book book = new Book();
+        book.title = "  " + DEFAULT_TITLE.toUpperCase() + " ";
+        book.author = DEFAULT_AUTHOR;
+        book.yearOfPublication = DEFAULT_YEAR_OF_PUBLICATION;
+        book.description = DEFAULT_DESCRIPTION;
+
+        given()
+                .body(book)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .when()
+                  .post("/api/books")
+                .then()
+                  .statusCode(BAD_REQUEST.getStatusCode());
+    }
+
+    private int pendingCount() {
+        return given()
+                .when()
+                  .get("/api/books/pending/count")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .extract()
+                  .path("'pending.count'");
+    }
+
+    // Pending books are registered by the replay once Numbers is back
+    private int awaitPendingCount(int expected) throws InterruptedException {
+        int count = pendingCount();
+        for (int i = 0; i < 100 && count != expected; i++) {
+            Thread.sleep(100);
+            count = pendingCount();
+        }
+        return count;
+    }
+
+    private static List<String> titles(Response response) {
+        return response.jsonPath().getList("title");
+    }
+
+    @Test
+    @Order(7)
+    void shouldListPendingItems() throws InterruptedException {
+        assertEquals(0, awaitPendingCount(0));
+
+        List<Book> books = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            Book book = new Book();
+            book.title = "Pending title " + i;
+            book.author = DEFAULT_AUTHOR;
+            book.yearOfPublication = DEFAULT_YEAR_OF_PUBLICATION;
+            book.description = DEFAULT_DESCRIPTION;
+            books.add(book);
+        }
+
+        MockNumberProxy.setAvailable(false);
+        try {
+            isbnNumberPool.take(isbnNumberPool.depth());
+            given()
+                    .body(books)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                    .when()
+                      .post("/api/books/batch")
+                    .then()
+                      .statusCode(OK.getStatusCode())
+                      .body("status", Matchers.contains("PENDING", "PENDING", "PENDING"));
+            assertEquals(3, pendingCount());
+
+            // In the order they have been accepted, by pages of 2
+            Response first = given()
+                    .queryParam("limit", 2)
+                    .when()
+                      .get("/api/books/pending")
+                    .then()
+                      .statusCode(OK.getStatusCode())
+                      .extract()
+                      .response();
+            assertEquals(List.of("Pending title 1", "Pending title 2"), titles(first));
+            String link = first.getHeader("Link");
+            assertNotNull(link);
+            String next = link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+
+            Response second = given()
+                    .when()
+                      .get(next)
+                    .then()
+                      .statusCode(OK.getStatusCode())
+                      .extract()
+                      .response();
+            assertEquals(List.of("Pending title 3"), titles(second));
+            assertNull(second.getHeader("Link"));
+        } finally {
+            MockNumberProxy.setAvailable(true);
+        }
+
+        given()
+                .queryParam("limit", 0)
+                .when()
+                  .get("/api/books/pending")
+                .then()
+                  .statusCode(BAD_REQUEST.getStatusCode());
+
+        assertEquals(0, awaitPendingCount(0));
+    }
+
+    @Test
+    @Order(8)
+    void shouldAnswerConditionalRequests() {
+        String bookTag = given()
+                .pathParam("id", bookId)
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .extract()
+                  .header(HttpHeaders.ETAG);
+        assertNotNull(bookTag);
+
+        given()
+                .pathParam("id", bookId)
+                .header(HttpHeaders.IF_NONE_MATCH, bookTag)
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .statusCode(NOT_MODIFIED.getStatusCode());
+
+        String catalogTag = given()
+                .queryParam("limit", 10)
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .extract()
+                  .header(HttpHeaders.ETAG);
+
+        given()
+                .queryParam("limit", 10)
+                .header(HttpHeaders.IF_NONE_MATCH, catalogTag)
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(NOT_MODIFIED.getStatusCode());
+
+        // An update changes both tags
+        Book book = given()
+                .pathParam("id", bookId)
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .extract()
+                  .as(Book.class);
+        book.rank = UPDATED_RANK;
+        given()
+                .body(book)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .when()
+                  .put("/api/books")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("rank", Is.is(UPDATED_RANK))
+                  .header(HttpHeaders.ETAG, Matchers.not(bookTag));
 
-        assertEquals(nbBooks + 1, books.size());
+        // The same change from the version read before is stale
+        given()
+                .body(book)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .when()
+                  .put("/api/books")
+                .then()
+                  .statusCode(CONFLICT.getStatusCode());
 
+        given()
+                .pathParam("id", bookId)
+                .header(HttpHeaders.IF_NONE_MATCH, bookTag)
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("rank", Is.is(UPDATED_RANK));
+
+        given()
+                .queryParam("limit", 10)
+                .header(HttpHeaders.IF_NONE_MATCH, catalogTag)
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(OK.getStatusCode());
+    }
+
+    @Test
+    @Order(9)
+    void shouldNotServeDeletedItemFromCache() {
+        // Second read served by the cache
+        for (int i = 0; i < 2; i++) {
+            given()
+                    .pathParam("id", bookId)
+                    .when()
+                      .get("/api/books/{id}")
+                    .then()
+                      .statusCode(OK.getStatusCode())
+                      .body("title", Is.is(DEFAULT_TITLE));
+        }
+
+        given()
+                .pathParam("id", bookId)
+                .when()
+                  .delete("/api/books/{id}")
+                .then()
+                  .statusCode(NO_CONTENT.getStatusCode());
+
+        given()
+                .pathParam("id", bookId)
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .statusCode(NOT_FOUND.getStatusCode());
+    }
+
+    @Test
+    @Order(10)
+    void shouldNegotiateProtobuf() throws IOException {
+        Book book = new Book();
+        book.title = DEFAULT_TITLE + " (protobuf)";
+        book.author = DEFAULT_AUTHOR;
+        book.yearOfPublication = DEFAULT_YEAR_OF_PUBLICATION;
+        book.nbOfPages = DEFAULT_NB_OF_PAGES;
+        book.rank = DEFAULT_RANK;
+        book.price = DEFAULT_PRICE;
+        book.smallImageUrl = DEFAULT_SMALL_IMAGE_URL;
+        book.mediumImageUrl = DEFAULT_MEDIUM_IMAGE_URL;
+        book.description = DEFAULT_DESCRIPTION;
+        String location = given()
+                .body(BookProtobufProvider.toMessage(book).toByteArray())
+                .header(HttpHeaders.CONTENT_TYPE, APPLICATION_PROTOBUF)
+                .when()
+                  .post("/api/books")
+                .then()
+                  .statusCode(CREATED.getStatusCode())
+                  .extract()
+                  .header("Location");
+        String id = location.substring(location.lastIndexOf("/") + 1);
+
+        ExtractableResponse<Response> response = given()
+                .pathParam("id", id)
+                .header(HttpHeaders.ACCEPT, APPLICATION_PROTOBUF)
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .header(HttpHeaders.CONTENT_TYPE, APPLICATION_PROTOBUF)
+                  .header(HttpHeaders.ETAG, Matchers.endsWith("-pb\""))
+                  .extract();
+        Book read = BookProtobufProvider.fromMessage(io.jefrajames.bookstore.proto.Book.parseFrom(response.asByteArray()));
+        assertEquals(Long.valueOf(id), read.id);
+        assertEquals(book.title, read.title);
+        assertEquals(MOCK_ISBN_13, read.isbn13);
+        assertEquals(0, book.price.compareTo(read.price));
+        assertEquals(DEFAULT_SMALL_IMAGE_URL, read.smallImageUrl);
+
+        // A page of books is a Books message
+        byte[] page = given()
+                .queryParam("limit", 10)
+                .header(HttpHeaders.ACCEPT, APPLICATION_PROTOBUF)
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .header(HttpHeaders.CONTENT_TYPE, APPLICATION_PROTOBUF)
+                  .extract()
+                  .asByteArray();
+        List<io.jefrajames.bookstore.proto.Book> books = Books.parseFrom(page).getBooksList();
+        assertTrue(books.size() > 0 && books.size() <= 10);
+        for (io.jefrajames.bookstore.proto.Book message : books) {
+            assertNotNull(BookProtobufProvider.fromMessage(message).title);
+        }
+
+        // JSON remains the default
+        given()
+                .pathParam("id", id)
+                .header(HttpHeaders.ACCEPT, "*/*")
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                  .header(HttpHeaders.ETAG, Matchers.not(Matchers.endsWith("-pb\"")))
+                  .body("title", Is.is(book.title));
+    }
+
+    @Test
+    @Order(11)
+    void shouldServeCatalogSnapshot() throws InterruptedException {
+        int size = awaitCatalog(nbBooks + 1).size();
+
+        String gzipTag = given()
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                  .body("size()", Is.is(size))
+                  .extract()
+                  .header(HttpHeaders.ETAG);
+
+        String identityTag = given()
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, identity")
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .header(HttpHeaders.CONTENT_ENCODING, Matchers.nullValue())
+                  .body("size()", Is.is(size))
+                  .extract()
+                  .header(HttpHeaders.ETAG);
+        assertNotEquals(gzipTag, identityTag);
+
+        given()
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .header(HttpHeaders.IF_NONE_MATCH, gzipTag)
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(NOT_MODIFIED.getStatusCode());
+    }
+
+    @Test
+    @Order(12)
+    void shouldSearchBooks() {
+        // Added by shouldNegotiateProtobuf, found whatever the case and accents
+        given()
+                .queryParam("q", "TITLE (PROTOBÜF)")
+                .when()
+                  .get("/api/books/search")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                  .body("[0].title", Is.is(DEFAULT_TITLE + " (protobuf)"));
+
+        given()
+                .queryParam("q", "the")
+                .when()
+                  .get("/api/books/search")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("size()", Is.is(0));
+
+        given()
+                .when()
+                  .get("/api/books/search")
+                .then()
+                  .statusCode(BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    @Order(13)
+    void shouldReturnOnlyAskedFields() {
+        ExtractableResponse<Response> page = given()
+                .queryParam("fields", "title, YEAROFPUBLICATION")
+                .queryParam("limit", 2)
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("size()", Is.is(2))
+                  .body("[0]", Matchers.hasKey("title"))
+                  .body("[0]", Matchers.hasKey("yearOfPublication"))
+                  .body("[0]", Matchers.not(Matchers.hasKey("author")))
+                  .body("[0]", Matchers.not(Matchers.hasKey("description")))
+                  .header("Link", Matchers.containsString("fields="))
+                  .extract();
+        long id = page.jsonPath().getLong("[0].id");
+
+        String fullTag = given()
+                .pathParam("id", id)
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .extract()
+                  .header(HttpHeaders.ETAG);
+
+        String projectedTag = given()
+                .pathParam("id", id)
+                .queryParam("fields", "author,title")
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("id", Is.is((int) id))
+                  .body("$", Matchers.hasKey("author"))
+                  .body("$", Matchers.not(Matchers.hasKey("description")))
+                  .extract()
+                  .header(HttpHeaders.ETAG);
+        assertNotEquals(fullTag, projectedTag);
+
+        given()
+                .pathParam("id", id)
+                .queryParam("fields", "title,author")
+                .header(HttpHeaders.IF_NONE_MATCH, projectedTag)
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .statusCode(NOT_MODIFIED.getStatusCode());
+
+        given()
+                .queryParam("fields", "isbn13")
+                .when()
+                  .get("/api/books/random")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("$", Matchers.hasKey("id"))
+                  .body("$", Matchers.hasKey("isbn13"))
+                  .body("$", Matchers.not(Matchers.hasKey("title")));
+
+        given()
+                .queryParam("fields", "title,titleKey")
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(BAD_REQUEST.getStatusCode());
+
+        given()
+                .queryParam("fields", " , ")
+                .when()
+                  .get("/api/books/random")
+                .then()
+                  .statusCode(BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    @Order(14)
+    void shouldCatchDuplicateMissedByPreChecks() throws SQLException {
+        // Inserted behind the back of the service, as another instance would: the Bloom filter does not know it
+        Book raced = new Book();
+        raced.title = "Raced title";
+        raced.author = "Raced author";
+        raced.yearOfPublication = DEFAULT_YEAR_OF_PUBLICATION;
+        raced.description = DEFAULT_DESCRIPTION;
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement insert = connection.prepareStatement("insert into book (id, version, title, title_key, author, year_of_publication) "
+                        + "values (nextval('book_seq'), 0, ?, ?, ?, ?)")) {
+            insert.setString(1, raced.title);
+            insert.setString(2, Book.normalizeTitle(raced.title));
+            insert.setString(3, raced.author);
+            insert.setInt(4, raced.yearOfPublication);
+            insert.executeUpdate();
+        }
+
+        Book fresh = new Book();
+        fresh.title = "Fresh title";
+        fresh.author = raced.author;
+        fresh.yearOfPublication = DEFAULT_YEAR_OF_PUBLICATION;
+        fresh.description = DEFAULT_DESCRIPTION;
+
+        // The chunk is rolled back by the unique constraint then registered book by book
+        given()
+                .body(List.of(fresh, raced))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .when()
+                  .post("/api/books/batch")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("status", Matchers.contains("CREATED", "DUPLICATE"))
+                  .body("[0].id", Matchers.notNullValue());
+
+        given()
+                .body(List.of(fresh))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .when()
+                  .post("/api/books/batch")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("status", Matchers.contains("DUPLICATE"));
+
+        // Same for a single book: rejected by the unique constraint, its numbers go back to the pool
+        Book single = new Book();
+        single.title = "Raced single title";
+        single.author = raced.author;
+        single.yearOfPublication = DEFAULT_YEAR_OF_PUBLICATION;
+        single.description = DEFAULT_DESCRIPTION;
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement insert = connection.prepareStatement("insert into book (id, version, title, title_key, author, year_of_publication) "
+                        + "values (nextval('book_seq'), 0, ?, ?, ?, ?)")) {
+            insert.setString(1, single.title);
+            insert.setString(2, Book.normalizeTitle(single.title));
+            insert.setString(3, single.author);
+            insert.setInt(4, single.yearOfPublication);
+            insert.executeUpdate();
+        }
+        MockNumberProxy.setAvailable(false);
+        try {
+            isbnNumberPool.take(isbnNumberPool.depth());
+            IsbnNumbers numbers = new IsbnNumbers();
+            numbers.setIsbn13("978-0-00-000001-0");
+            numbers.setIsbn10("0-00-000001-X");
+            isbnNumberPool.giveBack(List.of(numbers));
+
+            given()
+                    .body(single)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                    .when()
+                      .post("/api/books")
+                    .then()
+                      .statusCode(BAD_REQUEST.getStatusCode());
+            assertEquals(1, isbnNumberPool.depth());
+        } finally {
+            MockNumberProxy.setAvailable(true);
+        }
+    }
+
+    @Test
+    @Order(15)
+    void shouldIndexBooksChangedByOtherInstances() throws SQLException {
+        int size = idIndex.size();
+        String catalogTag = given()
+                .queryParam("limit", 10)
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .extract()
+                  .header(HttpHeaders.ETAG);
+
+        long id;
+        long catalogVersion;
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement insert = connection.prepareStatement("insert into book (id, version, title, title_key, author, year_of_publication) "
+                        + "values (nextval('book_seq'), 0, ?, ?, ?, ?) returning id");
+                PreparedStatement touch = connection.prepareStatement("update book_catalog set version = version + 1 returning version")) {
+            insert.setString(1, "Remote title");
+            insert.setString(2, Book.normalizeTitle("Remote title"));
+            insert.setString(3, "Remote author");
+            insert.setInt(4, DEFAULT_YEAR_OF_PUBLICATION);
+            try (ResultSet rs = insert.executeQuery()) {
+                rs.next();
+                id = rs.getLong(1);
+            }
+            try (ResultSet rs = touch.executeQuery()) {
+                rs.next();
+                catalogVersion = rs.getLong(1);
+            }
+        }
+        // As notified by the instance that created it
+        broadcast.publish(id, BookChangedEvent.Type.CREATED);
+        assertEquals(size + 1, idIndex.size());
+
+        // The catalog tag is the one of any other instance
+        given()
+                .queryParam("limit", 10)
+                .header(HttpHeaders.IF_NONE_MATCH, catalogTag)
+                .when()
+                  .get("/api/books")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .header(HttpHeaders.ETAG, "\"" + Long.toHexString(catalogVersion) + "\"");
+
+        // Its version is not indexed yet: the book is loaded, then compared to the tag
+        given()
+                .pathParam("id", id)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"" + id + "-0\"")
+                .when()
+                  .get("/api/books/{id}")
+                .then()
+                  .statusCode(NOT_MODIFIED.getStatusCode())
+                  .header(HttpHeaders.ETAG, "\"" + id + "-0\"");
+
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement delete = connection.prepareStatement("delete from book where id = ?")) {
+            delete.setLong(1, id);
+            delete.executeUpdate();
+        }
+        broadcast.publish(id, BookChangedEvent.Type.DELETED);
+        assertEquals(size, idIndex.size());
     }
 
 }
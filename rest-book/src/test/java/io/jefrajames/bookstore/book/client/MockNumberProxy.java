@@ -1,5 +1,8 @@
 package io.jefrajames.bookstore.book.client;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.enterprise.context.ApplicationScoped;
 
 import org.eclipse.microprofile.rest.client.inject.RestClient;
@@ -16,9 +19,23 @@ import lombok.extern.java.Log;
 @Log
 public class MockNumberProxy implements NumberClient {
 
+    // Set to false to simulate Numbers down
+    private static volatile boolean available = true;
+
+    public static void setAvailable(boolean value) {
+        available = value;
+    }
+
+    private static void checkAvailable() {
+        if (!available) {
+            throw new IllegalStateException("Numbers down (mock)");
+        }
+    }
+
     @Override
     public IsbnNumbers generateIsbnNumbers() {
         log.info("calling MockNumberProxy");
+        checkAvailable();
 
         IsbnNumbers isbnNumbers = new IsbnNumbers(); 
         isbnNumbers.setIsbn13(BookResourceTest.MOCK_ISBN_13); 
@@ -26,5 +43,21 @@ public class MockNumberProxy implements NumberClient {
         
         return isbnNumbers;
     }
+
+    @Override
+    public List<IsbnNumbers> generateIsbnNumbersBatch(int count) {
+        log.info("calling MockNumberProxy for " + count + " numbers");
+        checkAvailable();
+
+        List<IsbnNumbers> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            IsbnNumbers isbnNumbers = new IsbnNumbers();
+            isbnNumbers.setIsbn13(BookResourceTest.MOCK_ISBN_13);
+            isbnNumbers.setIsbn10(BookResourceTest.MOCK_ISBN_10);
+            batch.add(isbnNumbers);
+        }
+
+        return batch;
+    }
     
 }
@@ -0,0 +1,104 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.book.control.pending;
+
+import static io.restassured.RestAssured.given;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.persistence.PersistenceException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+import io.jefrajames.bookstore.book.client.MockNumberProxy;
+import io.jefrajames.bookstore.book.control.numbers.IsbnNumberPool;
+import io.jefrajames.bookstore.book.control.numbers.NumbersUnavailableException;
+import io.jefrajames.bookstore.book.entity.Book;
+import io.quarkus.test.junit.QuarkusTest;
+
+@QuarkusTest
+public class PendingBookReplayerTest {
+
+    @Inject
+    PendingBookStore store;
+
+    @Inject
+    IsbnNumberPool pool;
+
+    private static Book book(String title) {
+        Book book = new Book();
+        book.title = title;
+        book.author = "Replayed author";
+        book.yearOfPublication = 2022;
+        book.description = "Description";
+        return book;
+    }
+
+    @Test
+    void shouldMoveFailingBookToDeadLetter() throws InterruptedException {
+        // Too long for its column: accepted, then rejected by the database at each attempt
+        Book poison = book("Poison " + "x".repeat(300));
+        Book good = book("Replayed title");
+        long deadLetters = store.deadLetterCount();
+
+        MockNumberProxy.setAvailable(false);
+        try {
+            pool.take(pool.depth());
+            given()
+                    .body(List.of(poison, good))
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                    .when()
+                      .post("/api/books/batch")
+                    .then()
+                      .statusCode(OK.getStatusCode())
+                      .body("status", Matchers.contains("PENDING", "PENDING"));
+        } finally {
+            MockNumberProxy.setAvailable(true);
+        }
+
+        // The poison book does not block the good one
+        for (int i = 0; i < 100 && store.count() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, store.count());
+        assertEquals(deadLetters + 1, store.deadLetterCount());
+
+        given()
+                .body(List.of(good))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .when()
+                  .post("/api/books/batch")
+                .then()
+                  .statusCode(OK.getStatusCode())
+                  .body("status", Matchers.contains("DUPLICATE"));
+    }
+
+    @Test
+    void shouldBackOffOnlyOnTransientFailures() {
+        assertTrue(PendingBookReplayer.isTransient(new RuntimeException(new NumbersUnavailableException())));
+        assertTrue(PendingBookReplayer.isTransient(new PersistenceException(new SQLException("refused", "08001"))));
+        assertFalse(PendingBookReplayer.isTransient(new PersistenceException(new SQLException("too long", "22001"))));
+        assertFalse(PendingBookReplayer.isTransient(new IllegalArgumentException("Pending book cannot be read")));
+    }
+
+}
@@ -0,0 +1,145 @@
+// Copyright 2021 jefrajames
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// 
+//     http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.book.control.pending;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PendingJournalTest {
+
+    private static final int SEGMENT_SIZE = 256;
+
+    @TempDir
+    Path directory;
+
+    private static byte[] payload(int i) {
+        return ("{\"title\":\"Title " + i + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(f -> f.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> readAll(PendingJournal journal) throws IOException {
+        List<String> payloads = new ArrayList<>();
+        journal.forEach(0, record -> payloads.add(new String(record.getPayload(), StandardCharsets.UTF_8)));
+        return payloads;
+    }
+
+    @Test
+    void shouldReadConcurrentAppendsAcrossSegments() throws IOException {
+        try (PendingJournal journal = new PendingJournal(directory, SEGMENT_SIZE, 16)) {
+            List<CompletableFuture<Long>> offsets = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                offsets.add(journal.appendAsync(payload(i)));
+            }
+            CompletableFuture.allOf(offsets.toArray(CompletableFuture[]::new)).join();
+
+            List<String> payloads = readAll(journal);
+            assertEquals(50, payloads.size());
+            assertArrayEquals(payload(7), journal.read(offsets.get(7).join()).getPayload());
+            assertTrue(segments().size() > 1);
+        }
+    }
+
+    @Test
+    void shouldResumeAfterCheckpointAndDropTornRecord() throws IOException {
+        long checkpoint;
+        try (PendingJournal journal = new PendingJournal(directory, SEGMENT_SIZE, 16)) {
+            for (int i = 0; i < 20; i++) {
+                journal.append(payload(i));
+            }
+            checkpoint = journal.read(journal.getCheckpoint()).getNextOffset();
+            for (int i = 0; i < 9; i++) {
+                checkpoint = journal.read(checkpoint).getNextOffset();
+            }
+            journal.acknowledge(checkpoint);
+        }
+
+        // Simulates a crash in the middle of an append
+        List<Path> segments = segments();
+        try (FileChannel segment = FileChannel.open(segments.get(segments.size() - 1), StandardOpenOption.APPEND)) {
+            segment.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 42, 1, 2 }));
+        }
+
+        try (PendingJournal journal = new PendingJournal(directory, SEGMENT_SIZE, 16)) {
+            assertEquals(checkpoint, journal.getCheckpoint());
+            List<String> payloads = readAll(journal);
+            assertEquals(10, payloads.size());
+            assertEquals(new String(payload(10), StandardCharsets.UTF_8), payloads.get(0));
+
+            journal.acknowledge(journal.getEndOffset());
+            assertNull(journal.read(journal.getEndOffset()));
+            assertEquals(1, segments().size());
+        }
+    }
+
+    @Test
+    void shouldCompleteAppendsRacingWithClose() throws Exception {
+        ExecutorService appenders = Executors.newFixedThreadPool(4);
+        List<CompletableFuture<Long>> offsets = new ArrayList<>();
+        try {
+            for (int round = 0; round < 20; round++) {
+                PendingJournal journal = new PendingJournal(directory.resolve("round-" + round), SEGMENT_SIZE * 16, 16);
+                CountDownLatch started = new CountDownLatch(4);
+                List<CompletableFuture<List<CompletableFuture<Long>>>> tasks = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    tasks.add(CompletableFuture.supplyAsync(() -> {
+                        List<CompletableFuture<Long>> appended = new ArrayList<>();
+                        started.countDown();
+                        for (int i = 0; i < 200; i++) {
+                            appended.add(journal.appendAsync(payload(i)));
+                        }
+                        return appended;
+                    }, appenders));
+                }
+                started.await();
+                journal.close();
+                for (var task : tasks) {
+                    offsets.addAll(task.get(5, TimeUnit.SECONDS));
+                }
+            }
+        } finally {
+            appenders.shutdownNow();
+        }
+
+        // Durable or failed, none left waiting
+        CompletableFuture<Void> all = CompletableFuture.allOf(offsets.toArray(CompletableFuture[]::new));
+        assertTrue(all.handle((ok, failure) -> true).get(5, TimeUnit.SECONDS));
+    }
+
+}
@@ -0,0 +1,83 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.book.control.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class InvertedIndexTest {
+
+    private static List<Long> ids(List<InvertedIndex.Hit> hits) {
+        return hits.stream().map(InvertedIndex.Hit::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    void shouldNormalizeTerms() {
+        assertEquals(List.of("cafe", "creme", "java", "ee8"), TextAnalyzer.terms("Café, CRÈME & the Java-EE8 a"));
+    }
+
+    @Test
+    void shouldRankTitleMatchesFirst() {
+        InvertedIndex index = new InvertedIndex();
+        index.put(InvertedIndex.analyze(1, 1, "Cooking at home", "Jane Doe", "Quarkus is mentioned once in this description"));
+        index.put(InvertedIndex.analyze(2, 1, "Quarkus in action", "John Smith", "Supersonic subatomic Java"));
+        index.put(InvertedIndex.analyze(3, 1, "Gardening", "Ann Lee", "Nothing to see"));
+
+        assertEquals(List.of(2L, 1L), ids(index.search("quarkus", 10)));
+        assertEquals(List.of(2L), ids(index.search("QUARKUS java", 1)));
+        assertTrue(index.search("the of", 10).isEmpty());
+        assertTrue(index.search("unknown", 10).isEmpty());
+    }
+
+    @Test
+    void shouldApplyUpdatesAndDeletes() {
+        InvertedIndex index = new InvertedIndex();
+        index.put(InvertedIndex.analyze(1, 1, "Quarkus", "Jane Doe", "First edition"));
+        index.put(InvertedIndex.analyze(2, 1, "Micronaut", "John Smith", "Another framework"));
+
+        // Older or same version ignored
+        assertTrue(index.put(InvertedIndex.analyze(1, 2, "Helidon", "Jane Doe", "Second edition")));
+        assertFalse(index.put(InvertedIndex.analyze(1, 1, "Quarkus", "Jane Doe", "First edition")));
+        assertTrue(index.search("quarkus", 10).isEmpty());
+        assertEquals(List.of(1L), ids(index.search("helidon", 10)));
+
+        index.remove(2);
+        assertTrue(index.search("micronaut", 10).isEmpty());
+        assertEquals(1, index.size());
+        assertEquals(2, index.deletedCount());
+    }
+
+    @Test
+    void shouldKeepTheBestHits() {
+        InvertedIndex index = new InvertedIndex();
+        for (int i = 1; i <= 1000; i++) {
+            // The more repetitions of java, the better
+            index.put(InvertedIndex.analyze(i, 1, "Book " + i, "Author", "java ".repeat(i % 50 + 1) + "filler text"));
+        }
+        List<InvertedIndex.Hit> hits = index.search("java", 5);
+        assertEquals(5, hits.size());
+        for (InvertedIndex.Hit hit : hits) {
+            assertEquals(49, hit.getId() % 50);
+        }
+        // Six terms per book, ordinals are delta encoded: 2 bytes per posting, 3 for the first of the numbers
+        assertTrue(index.postingBytes() <= 1000 * 13, "posting bytes: " + index.postingBytes());
+    }
+
+}
@@ -0,0 +1,58 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.maintenance.boundary;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import javax.inject.Inject;
+
+import org.junit.jupiter.api.Test;
+
+import io.jefrajames.bookstore.maintenance.control.ConcurrencyLimiter;
+import io.quarkus.test.junit.QuarkusTest;
+
+@QuarkusTest
+public class ConcurrencyLimitFilterTest {
+
+    @Inject
+    ConcurrencyLimiter limiter;
+
+    private int awaitInFlight(int expected) throws InterruptedException {
+        int inFlight = limiter.getInFlight();
+        for (int i = 0; i < 100 && inFlight != expected; i++) {
+            Thread.sleep(100);
+            inFlight = limiter.getInFlight();
+        }
+        return inFlight;
+    }
+
+    @Test
+    void shouldReleasePermitWhenResourceThrows() throws InterruptedException {
+        assertEquals(0, awaitInFlight(0));
+
+        // More failures than the limit: a leaked permit would end with 503s
+        int requests = limiter.getLimit() * 2;
+        for (int i = 0; i < requests; i++) {
+            given()
+                    .when()
+                    .get("/api/failing")
+                    .then()
+                    .statusCode(500);
+        }
+
+        assertEquals(0, awaitInFlight(0));
+    }
+
+}
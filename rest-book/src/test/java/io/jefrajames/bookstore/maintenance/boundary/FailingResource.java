@@ -0,0 +1,34 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.maintenance.boundary;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+/**
+ * Resource throwing an exception mapped by no ExceptionMapper, to check
+ * that the concurrency permit is released anyway.
+ *
+ * @author jefrajames
+ */
+@Path("/failing")
+@CheckMaintenance
+public class FailingResource {
+
+    @GET
+    public String fail() {
+        throw new IllegalStateException("Unmapped failure");
+    }
+
+}
@@ -0,0 +1,89 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.maintenance.control;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static ConcurrencyLimiter limiter() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+        limiter.enabled = true;
+        limiter.initialLimit = 10;
+        limiter.minLimit = 2;
+        limiter.maxLimit = 100;
+        limiter.writeShare = 0.5;
+        limiter.tolerance = 2;
+        limiter.backoffRatio = 0.5;
+        limiter.sheddingWindow = Duration.ofSeconds(5);
+        limiter.init();
+        return limiter;
+    }
+
+    @Test
+    void shouldShedWritesFirst() {
+        ConcurrencyLimiter limiter = limiter();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(true));
+        }
+        assertFalse(limiter.tryAcquire(true));
+        assertTrue(limiter.isShedding());
+
+        // Reads still admitted up to the full limit
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(false));
+        }
+        assertFalse(limiter.tryAcquire(false));
+        assertEquals(2, limiter.getRejected());
+        assertEquals(10, limiter.getInFlight());
+    }
+
+    @Test
+    void shouldAdaptToLatency() throws InterruptedException {
+        ConcurrencyLimiter limiter = limiter();
+
+        // Fast and busy: the limit grows
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j < 8; j++) {
+                limiter.tryAcquire(false);
+            }
+            for (int j = 0; j < 8; j++) {
+                limiter.release(FAST, false);
+            }
+        }
+        int grown = limiter.getLimit();
+        assertTrue(grown > 10, "limit=" + grown);
+
+        // Far above the baseline: cut, once per latency
+        TimeUnit.MILLISECONDS.sleep(150);
+        limiter.tryAcquire(false);
+        limiter.release(FAST / 10, false);
+        limiter.tryAcquire(false);
+        limiter.release(FAST * 10, false);
+        assertEquals(grown / 2, limiter.getLimit(), 1);
+        limiter.tryAcquire(false);
+        limiter.release(FAST * 10, false);
+        assertEquals(grown / 2, limiter.getLimit(), 1);
+    }
+
+}
@@ -0,0 +1,48 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.number;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URL;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.jefrajames.bookstore.load.LoadOptions;
+import io.jefrajames.bookstore.load.LoadReport;
+import io.jefrajames.bookstore.load.LoadTest;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+
+// rest-number started in-process: mvn test -Dload -Dload.rate=1000
+@QuarkusTest
+public class NumberLoadTest {
+
+    @TestHTTPResource("/")
+    URL root;
+
+    @Test
+    void shouldRunTheMix() throws Exception {
+        Map<String, String> values = LoadOptions.fromSystemProperties();
+        values.put("target", root.toString());
+        values.putIfAbsent("mix", "numbers");
+        values.putIfAbsent("warmup", "5s");
+        values.putIfAbsent("duration", "30s");
+
+        LoadReport report = LoadTest.run(values);
+        assertTrue(report.count() > 0, "No response");
+    }
+
+}
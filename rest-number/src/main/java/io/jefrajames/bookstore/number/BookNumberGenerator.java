@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.number;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Generates random but valid book numbers: ISBN-10, ISBN-13, ASIN, EAN-8 and
+ * EAN-13.
+ *
+ * Same formats as the java-faker Code generator used before: ISBN group 0 or
+ * 1, registrant ranges of the English language area, hyphens when
+ * number.separator is set. Check digits are computed while the digits are
+ * written, no per-request state besides the thread-local random.
+ *
+ * ISBNs can also be derived from a sequence number handed out by the
+ * IsbnAllocator: the sequence enumerates every publication of every
+ * registrant of the 978-0 and 978-1 groups, so distinct sequences give
+ * distinct ISBNs. The ISBN-10 is then the one of the same book.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+public class BookNumberGenerator {
+
+    private static final int ISBN_BODY_DIGITS = 8;
+
+    // Registrant ranges (max excluded), the publication gets the remaining digits
+    private static final int[] REGISTRANT_MIN = { 0, 200, 7000, 85000, 900000, 9500000 };
+    private static final int[] REGISTRANT_MAX = { 10, 700, 8500, 90000, 950000, 10000000 };
+    private static final int[] REGISTRANT_DIGITS = { 2, 3, 4, 5, 6, 7 };
+    private static final int[] PUBLICATION_COUNT = { 1000000, 100000, 10000, 1000, 100, 10 };
+
+    private static final int ISBN_GROUPS = 2;
+    private static final long GROUP_CAPACITY = groupCapacity();
+
+    /**
+     * How many distinct ISBNs can be derived from a sequence number.
+     */
+    public static final long SEQUENCE_CAPACITY = ISBN_GROUPS * GROUP_CAPACITY;
+
+    private static final char[] ASIN_CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    private final boolean separator;
+
+    @Inject
+    public BookNumberGenerator(@ConfigProperty(name = "number.separator", defaultValue = "false") boolean separator) {
+        this.separator = separator;
+    }
+
+    private static long groupCapacity() {
+        long capacity = 0;
+        for (int range = 0; range < REGISTRANT_MIN.length; range++) {
+            capacity += (long) (REGISTRANT_MAX[range] - REGISTRANT_MIN[range]) * PUBLICATION_COUNT[range];
+        }
+        return capacity;
+    }
+
+    public BookNumberResponse generate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] buffer = new char[17];
+
+        int range = random.nextInt(REGISTRANT_MIN.length);
+        BookNumberResponse bookNumbers = new BookNumberResponse();
+        bookNumbers.setIsbn10(isbn10(buffer, random.nextInt(ISBN_GROUPS), range,
+                random.nextInt(REGISTRANT_MIN[range], REGISTRANT_MAX[range]), random.nextInt(PUBLICATION_COUNT[range])));
+        range = random.nextInt(REGISTRANT_MIN.length);
+        bookNumbers.setIsbn13(isbn13(buffer, random.nextBoolean() ? '8' : '9', random.nextInt(ISBN_GROUPS), range,
+                random.nextInt(REGISTRANT_MIN[range], REGISTRANT_MAX[range]), random.nextInt(PUBLICATION_COUNT[range])));
+        return withOtherNumbers(bookNumbers, random, buffer);
+    }
+
+    /**
+     * Book numbers whose ISBNs are given by an allocated sequence number.
+     */
+    public BookNumberResponse generate(long sequence) {
+        if (sequence < 0 || sequence >= SEQUENCE_CAPACITY) {
+            throw new IllegalArgumentException("ISBN sequence out of range: " + sequence);
+        }
+        char[] buffer = new char[17];
+
+        int group = (int) (sequence / GROUP_CAPACITY);
+        long offset = sequence % GROUP_CAPACITY;
+        int range = 0;
+        long capacity;
+        while (offset >= (capacity = (long) (REGISTRANT_MAX[range] - REGISTRANT_MIN[range]) * PUBLICATION_COUNT[range])) {
+            offset -= capacity;
+            range++;
+        }
+        int registrant = REGISTRANT_MIN[range] + (int) (offset / PUBLICATION_COUNT[range]);
+        int publication = (int) (offset % PUBLICATION_COUNT[range]);
+
+        BookNumberResponse bookNumbers = new BookNumberResponse();
+        bookNumbers.setIsbn10(isbn10(buffer, group, range, registrant, publication));
+        bookNumbers.setIsbn13(isbn13(buffer, '8', group, range, registrant, publication));
+        return withOtherNumbers(bookNumbers, ThreadLocalRandom.current(), buffer);
+    }
+
+    private BookNumberResponse withOtherNumbers(BookNumberResponse bookNumbers, ThreadLocalRandom random, char[] buffer) {
+        bookNumbers.setAsin(asin(random, buffer));
+        bookNumbers.setEan8(ean8(random, buffer));
+        bookNumbers.setEan13(ean13(random, buffer));
+        bookNumbers.setGenerationDate(Instant.now());
+        return bookNumbers;
+    }
+
+    private String isbn10(char[] buffer, int group, int range, int registrant, int publication) {
+        int length = isbnBody(buffer, 0, group, range, registrant, publication);
+
+        // Weights 1 to 9, check digit is the sum modulo 11, 10 written X
+        int sum = 0;
+        int weight = 1;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] != '-') {
+                sum += weight++ * (buffer[i] - '0');
+            }
+        }
+        int check = sum % 11;
+        buffer[length++] = check == 10 ? 'X' : (char) ('0' + check);
+        return new String(buffer, 0, length);
+    }
+
+    private String isbn13(char[] buffer, char gs1, int group, int range, int registrant, int publication) {
+        buffer[0] = '9';
+        buffer[1] = '7';
+        buffer[2] = gs1;
+        int length = 3;
+        if (separator) {
+            buffer[length++] = '-';
+        }
+        length = isbnBody(buffer, length, group, range, registrant, publication);
+        buffer[length] = gtinCheckDigit(buffer, 0, length);
+        return new String(buffer, 0, length + 1);
+    }
+
+    // Writes group, registrant and publication with their separators
+    private int isbnBody(char[] buffer, int from, int group, int range, int registrant, int publication) {
+        int length = from;
+        buffer[length++] = (char) ('0' + group);
+        if (separator) {
+            buffer[length++] = '-';
+        }
+
+        int registrantDigits = REGISTRANT_DIGITS[range];
+        length = writeNumber(buffer, length, registrant, registrantDigits);
+        if (separator) {
+            buffer[length++] = '-';
+        }
+
+        length = writeNumber(buffer, length, publication, ISBN_BODY_DIGITS - registrantDigits);
+        if (separator) {
+            buffer[length++] = '-';
+        }
+        return length;
+    }
+
+    private static int writeNumber(char[] buffer, int from, int value, int digits) {
+        for (int i = from + digits - 1; i >= from; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return from + digits;
+    }
+
+    private String asin(ThreadLocalRandom random, char[] buffer) {
+        // Book ASINs are a B0 prefix followed by 8 alphanumerics
+        buffer[0] = 'B';
+        buffer[1] = '0';
+        for (int i = 2; i < 10; i++) {
+            buffer[i] = ASIN_CHARS[random.nextInt(ASIN_CHARS.length)];
+        }
+        return new String(buffer, 0, 10);
+    }
+
+    private String ean8(ThreadLocalRandom random, char[] buffer) {
+        return gtin(random, buffer, 8);
+    }
+
+    private String ean13(ThreadLocalRandom random, char[] buffer) {
+        return gtin(random, buffer, 13);
+    }
+
+    private static String gtin(ThreadLocalRandom random, char[] buffer, int length) {
+        for (int i = 0; i < length - 1; i++) {
+            buffer[i] = (char) ('0' + random.nextInt(10));
+        }
+        buffer[length - 1] = gtinCheckDigit(buffer, 0, length - 1);
+        return new String(buffer, 0, length);
+    }
+
+    // GS1 check digit: weights 3 and 1 alternate from the rightmost digit, separators ignored
+    private static char gtinCheckDigit(char[] buffer, int from, int to) {
+        int sum = 0;
+        int weight = 3;
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer[i] != '-') {
+                sum += weight * (buffer[i] - '0');
+                weight = 4 - weight;
+            }
+        }
+        return (char) ('0' + (10 - sum % 10) % 10);
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.number;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import io.jefrajames.bookstore.proto.BookNumbers;
+import io.jefrajames.bookstore.proto.BookNumbersBatch;
+import io.smallrye.mutiny.Uni;
+
+/**
+ * Writes book numbers as the BookNumbers message of /proto/numbers.proto,
+ * and lists of them as a BookNumbersBatch, with the classes generated from it.
+ *
+ * A new field of BookNumberResponse must be added to the schema, with a new
+ * number, and mapped here.
+ *
+ * @author jefrajames
+ */
+@Provider
+@Produces(BookNumberProtobufWriter.APPLICATION_PROTOBUF)
+public class BookNumberProtobufWriter implements MessageBodyWriter<Object> {
+
+    public static final String APPLICATION_PROTOBUF = "application/x-protobuf";
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return BookNumberResponse.class.equals(type) || (Collection.class.isAssignableFrom(type) && isListOfNumbers(genericType));
+    }
+
+    // The generic type is the one returned by the method, Uni<List<BookNumberResponse>> for a batch
+    private static boolean isListOfNumbers(Type genericType) {
+        if (genericType instanceof ParameterizedType && Uni.class.equals(((ParameterizedType) genericType).getRawType())) {
+            genericType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+        }
+        return genericType instanceof ParameterizedType
+                && BookNumberResponse.class.equals(((ParameterizedType) genericType).getActualTypeArguments()[0]);
+    }
+
+    @Override
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+
+        if (entity instanceof BookNumberResponse) {
+            toMessage((BookNumberResponse) entity).writeTo(entityStream);
+            return;
+        }
+        BookNumbersBatch.Builder batch = BookNumbersBatch.newBuilder();
+        for (Object element : (Collection<?>) entity) {
+            batch.addNumbers(toMessage((BookNumberResponse) element));
+        }
+        batch.build().writeTo(entityStream);
+    }
+
+    static BookNumbers toMessage(BookNumberResponse numbers) {
+        BookNumbers.Builder message = BookNumbers.newBuilder();
+        if (numbers.getIsbn10() != null)
+            message.setIsbn10(numbers.getIsbn10());
+        if (numbers.getIsbn13() != null)
+            message.setIsbn13(numbers.getIsbn13());
+        if (numbers.getAsin() != null)
+            message.setAsin(numbers.getAsin());
+        if (numbers.getEan8() != null)
+            message.setEan8(numbers.getEan8());
+        if (numbers.getEan13() != null)
+            message.setEan13(numbers.getEan13());
+        return message.build();
+    }
+
+}
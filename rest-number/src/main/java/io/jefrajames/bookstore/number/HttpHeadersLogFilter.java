@@ -17,34 +17,107 @@ package io.jefrajames.bookstore.number;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
-import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.ext.Provider;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import lombok.extern.java.Log;
+
 /**
- * A JAX-RS filter that display HTTP headers.
+ * A JAX-RS filter that logs HTTP headers.
  * 
  * Demonstrates the use of uber-trace-id used by Jaeger
+ *
+ * Requests are sampled, then rate limited per second, and only the allowed
+ * headers are written, as key="value" pairs on a single line. The lines go
+ * through an async log handler (see application.properties): the request
+ * thread only formats the line.
  * 
  * @author jefrajames
  */
 @Provider
+@LogHttpHeaders
+@Log
 public class HttpHeadersLogFilter implements ContainerRequestFilter {
 
+    @ConfigProperty(name = "headers.log.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "headers.log.sampling-rate", defaultValue = "1")
+    double samplingRate;
+
+    @ConfigProperty(name = "headers.log.max-per-second", defaultValue = "100")
+    long maxPerSecond;
+
+    // Empty: all headers
+    @ConfigProperty(name = "headers.log.allowlist")
+    Optional<List<String>> allowlist;
+
+    private Set<String> allowedHeaders;
+
+    // Current second (modulo 2^20) in the high 20 bits, lines logged in it in the low 44 bits
+    private final AtomicLong window = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        allowedHeaders = allowlist.orElse(List.of()).stream()
+                .map(header -> header.trim().toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+    }
+
+    private boolean acquire() {
+        long second = System.currentTimeMillis() / 1000 & 0xFFFFF;
+        while (true) {
+            long current = window.get();
+            long count = current >>> 44 == second ? current & 0xFFFFFFFFFFFL : 0;
+            if (count >= maxPerSecond) {
+                return false;
+            }
+            if (window.compareAndSet(current, second << 44 | count + 1)) {
+                return true;
+            }
+        }
+    }
+
     // uber-trace-id used by Jaeger to associate spans
-    private void printHeaderInfo(MultivaluedMap<String, String> headers) {
-        System.out.println("--------------- HTTP Headers ---------------");
-        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
-            System.out.println(entry.getKey() + "=" + entry.getValue());
+    private String format(ContainerRequestContext context) {
+        StringBuilder line = new StringBuilder(256)
+                .append("http.headers method=").append(context.getMethod())
+                .append(" path=").append(context.getUriInfo().getPath());
+        for (Map.Entry<String, List<String>> entry : context.getHeaders().entrySet()) {
+            String name = entry.getKey().toLowerCase(Locale.ROOT);
+            if (allowedHeaders.isEmpty() || allowedHeaders.contains(name)) {
+                line.append(' ').append(name).append("=\"");
+                List<String> values = entry.getValue();
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    line.append(values.get(i).replace("\"", "\\\""));
+                }
+                line.append('"');
+            }
         }
+        return line.toString();
     }
 
     @Override
     public void filter(ContainerRequestContext context) throws IOException {
-        printHeaderInfo(context.getHeaders());
+        if (!enabled || ThreadLocalRandom.current().nextDouble() >= samplingRate || !acquire()) {
+            return;
+        }
+        log.info(format(context));
     }
 
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.number;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import lombok.extern.java.Log;
+
+/**
+ * Hands out ISBN sequence numbers, each one at most once, even across
+ * restarts.
+ *
+ * The high-water mark is only shared by the allocators of one process:
+ * rest-number must run as a single instance. The file is locked while open,
+ * a second process opening it fails at startup instead of handing out the
+ * same numbers.
+ *
+ * Sequences are reserved from a high-water mark by blocks. The high-water
+ * mark is persisted before a block is used, in a small memory-mapped file
+ * with two checksummed slots written alternately: a torn write leaves the
+ * previous slot valid, whose mark is still above every number handed out.
+ * Numbers of a block not used before a restart are skipped, never reused.
+ *
+ * Inside a block, allocation is a single atomic add. A batch request takes
+ * its numbers as one contiguous range: the caller, typically the ISBN pool
+ * of a rest-book instance, leases them and serves its books locally.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class IsbnAllocator {
+
+    private static final int SLOT_SIZE = 24;
+
+    @ConfigProperty(name = "number.allocator.file", defaultValue = "data/isbn-allocator.dat")
+    Path file;
+
+    @ConfigProperty(name = "number.allocator.block-size", defaultValue = "10000")
+    int blockSize;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer slots;
+
+    private long generation;
+
+    private long highWaterMark;
+
+    private volatile Block block = new Block(0, 0);
+
+    // Sequences [next, end) of the current block
+    private static final class Block {
+        final AtomicLong next;
+        final long end;
+
+        Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    @PostConstruct
+    void open() {
+        boolean created;
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            created = !Files.exists(file) || Files.size(file) == 0;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (!lock()) {
+                channel.close();
+                throw new IllegalStateException("The ISBN allocator file " + file + " is used by another instance, rest-number must run as a single instance");
+            }
+            slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * SLOT_SIZE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot open the ISBN allocator file " + file, ex);
+        }
+
+        boolean found = false;
+        for (int slot = 0; slot < 2; slot++) {
+            long slotGeneration = slots.getLong(slot * SLOT_SIZE);
+            long slotMark = slots.getLong(slot * SLOT_SIZE + 8);
+            if (slots.getLong(slot * SLOT_SIZE + 16) == checksum(slotGeneration, slotMark)
+                    && (!found || slotGeneration > generation)) {
+                generation = slotGeneration;
+                highWaterMark = slotMark;
+                found = true;
+            }
+        }
+        if (!found && !created) {
+            // Starting again from zero would hand out numbers twice
+            throw new IllegalStateException("No valid high-water mark in the ISBN allocator file " + file);
+        }
+        if (!found) {
+            // A new file is valid from the start, even if closed before any reservation
+            persist(0);
+        }
+        block = new Block(highWaterMark, highWaterMark);
+        log.info("ISBN allocator opened at sequence " + highWaterMark + " from " + file);
+    }
+
+    // Released when the channel is closed
+    private boolean lock() throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException ex) {
+            // Already locked in this process
+            return false;
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            log.warning("Cannot close the ISBN allocator file: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Allocates count consecutive sequence numbers.
+     *
+     * @return the first one
+     * @throws IllegalStateException when the ISBN space is exhausted
+     */
+    public long allocate(int count) {
+        while (true) {
+            Block current = block;
+            long first = current.next.getAndAdd(count);
+            if (first + count <= current.end) {
+                return first;
+            }
+            reserve(current, count);
+        }
+    }
+
+    // Persists a new high-water mark then publishes the block, the end of the previous one is dropped
+    private synchronized void reserve(Block exhausted, int count) {
+        if (block != exhausted) {
+            return;
+        }
+        long start = highWaterMark;
+        long end = start + Math.max(blockSize, count);
+        if (end > BookNumberGenerator.SEQUENCE_CAPACITY) {
+            throw new IllegalStateException("ISBN sequence space exhausted");
+        }
+        persist(end);
+        block = new Block(start, end);
+    }
+
+    private void persist(long mark) {
+        long nextGeneration = generation + 1;
+        int offset = (int) (nextGeneration % 2) * SLOT_SIZE;
+        slots.putLong(offset, nextGeneration);
+        slots.putLong(offset + 8, mark);
+        slots.putLong(offset + 16, checksum(nextGeneration, mark));
+        slots.force();
+        generation = nextGeneration;
+        highWaterMark = mark;
+    }
+
+    private static long checksum(long generation, long mark) {
+        CRC32 crc = new CRC32();
+        for (int shift = 0; shift < 64; shift += 8) {
+            crc.update((int) (generation >>> shift));
+            crc.update((int) (mark >>> shift));
+        }
+        // Never 0: a zeroed slot is not valid
+        return crc.getValue() | 1L << 32;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 jefrajames.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jefrajames.bookstore.number;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.ws.rs.ServiceUnavailableException;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.microprofileext.config.event.ChangeEvent;
+
+import io.smallrye.mutiny.Uni;
+import lombok.extern.java.Log;
+
+/**
+ * Injects latency and errors in the Numbers responses, to reproduce a slow
+ * or failing dependency of rest-book.
+ *
+ * The delay is a timer, no thread is blocked while waiting. It follows one
+ * of these distributions, in milliseconds:
+ * <ul>
+ * <li>fixed: always time.to.sleep</li>
+ * <li>uniform: between time.to.sleep and latency.max</li>
+ * <li>exponential: mean of time.to.sleep</li>
+ * <li>long-tail: Pareto starting at time.to.sleep, shaped so that
+ * latency.tail.percentile of the delays are under latency.tail.delay</li>
+ * </ul>
+ * Delays never exceed latency.max. A share latency.error-rate of the
+ * responses fail with a 503 after their delay.
+ *
+ * All of them can be changed at runtime with the in-memory config source.
+ *
+ * @author jefrajames
+ */
+@ApplicationScoped
+@Log
+public class LatencyInjector {
+
+    enum Distribution {
+        FIXED, UNIFORM, EXPONENTIAL, LONG_TAIL
+    }
+
+    @ConfigProperty(name = "latency.distribution", defaultValue = "fixed")
+    String distributionName;
+
+    @ConfigProperty(name = "time.to.sleep", defaultValue = "15")
+    volatile long base;
+
+    @ConfigProperty(name = "latency.max", defaultValue = "1000")
+    volatile long max;
+
+    @ConfigProperty(name = "latency.tail.percentile", defaultValue = "0.99")
+    volatile double tailPercentile;
+
+    @ConfigProperty(name = "latency.tail.delay", defaultValue = "200")
+    volatile long tailDelay;
+
+    @ConfigProperty(name = "latency.error-rate", defaultValue = "0")
+    volatile double errorRate;
+
+    volatile Distribution distribution;
+
+    @PostConstruct
+    void init() {
+        distribution = distribution(distributionName);
+    }
+
+    private static Distribution distribution(String name) {
+        return Distribution.valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    // Change in memory source config
+    void observeChangeConfigEvent(@Observes ChangeEvent changeEvent) {
+        String key = changeEvent.getKey();
+        String value = changeEvent.getNewValue();
+        if (key == null || value == null) {
+            return;
+        }
+        try {
+            switch (key) {
+                case "latency.distribution":
+                    distribution = distribution(value);
+                    break;
+                case "time.to.sleep":
+                    base = Long.parseLong(value);
+                    break;
+                case "latency.max":
+                    max = Long.parseLong(value);
+                    break;
+                case "latency.tail.percentile":
+                    tailPercentile = Double.parseDouble(value);
+                    break;
+                case "latency.tail.delay":
+                    tailDelay = Long.parseLong(value);
+                    break;
+                case "latency.error-rate":
+                    errorRate = Double.parseDouble(value);
+                    break;
+                default:
+                    return;
+            }
+            log.info("Latency injection changed: " + key + "=" + value);
+        } catch (IllegalArgumentException ex) {
+            log.warning("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    /**
+     * Completes after the injected delay, or fails with a 503.
+     */
+    public Uni<Void> delay() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long millis = nextDelay(random);
+        boolean fail = random.nextDouble() < errorRate;
+
+        Uni<Void> delayed = Uni.createFrom().voidItem();
+        if (millis > 0) {
+            delayed = delayed.onItem().delayIt().by(Duration.ofMillis(millis));
+        }
+        if (fail) {
+            return delayed.onItem().failWith(() -> new ServiceUnavailableException("Injected error"));
+        }
+        return delayed;
+    }
+
+    long nextDelay(ThreadLocalRandom random) {
+        long min = base;
+        if (min <= 0) {
+            return 0;
+        }
+        double millis;
+        switch (distribution) {
+            case UNIFORM:
+                millis = min + random.nextDouble() * Math.max(0, max - min);
+                break;
+            case EXPONENTIAL:
+                millis = -min * Math.log(1 - random.nextDouble());
+                break;
+            case LONG_TAIL:
+                // P(delay > tailDelay) = 1 - tailPercentile
+                double alpha = Math.log(1 / (1 - tailPercentile)) / Math.log((double) Math.max(tailDelay, min + 1) / min);
+                millis = min / Math.pow(1 - random.nextDouble(), 1 / alpha);
+                break;
+            default:
+                millis = min;
+        }
+        return Math.min((long) millis, max);
+    }
+
+}
@@ -15,25 +15,32 @@
  */
 package io.jefrajames.bookstore.number;
 
-import java.time.Instant;
-import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import java.util.List;
 
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-
-import com.github.javafaker.Faker;
+import javax.ws.rs.core.Variant;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.faulttolerance.Timeout;
 import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import lombok.extern.java.Log;
 
@@ -46,32 +53,83 @@ import lombok.extern.java.Log;
 @LogHttpHeaders
 public class NumberResource {
 
-    @ConfigProperty(name = "number.separator", defaultValue = "false")
-    boolean separator;
+    // JSON first: the default when both are acceptable
+    private static final List<Variant> VARIANTS = Variant.mediaTypes(MediaType.APPLICATION_JSON_TYPE,
+            MediaType.valueOf(BookNumberProtobufWriter.APPLICATION_PROTOBUF)).build();
+
+    @Inject
+    BookNumberGenerator generator;
+
+    @Inject
+    IsbnAllocator allocator;
+
+    // random: ISBNs may collide, allocated: ISBNs from the allocator, never twice
+    @ConfigProperty(name = "number.isbn.mode", defaultValue = "random")
+    String isbnMode;
+
+    @Inject
+    LatencyInjector latency;
 
-    @ConfigProperty(name = "time.to.sleep", defaultValue = "15")
-    int timeToSleep;
+    @ConfigProperty(name = "number.batch.max-count", defaultValue = "1000")
+    int maxBatchCount;
 
     @Timeout(250)
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({ MediaType.APPLICATION_JSON, BookNumberProtobufWriter.APPLICATION_PROTOBUF })
     @Operation(summary = "Generates book numbers", description = "These book numbers have several formats: ISBN, ASIN and EAN")
-    @APIResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = BookNumberResponse.class)))
-    public Uni<Response> generateBookNumbers() throws InterruptedException {
-
-        if (timeToSleep != 0)
-            TimeUnit.MILLISECONDS.sleep(timeToSleep);
-            
-        Faker faker = new Faker();
-        BookNumberResponse bookNumbers = new BookNumberResponse();
-        bookNumbers.setIsbn10(faker.code().isbn10(separator));
-        bookNumbers.setIsbn13(faker.code().isbn13(separator));
-        bookNumbers.setAsin(faker.code().asin());
-        bookNumbers.setEan8(faker.code().ean8());
-        bookNumbers.setEan13(faker.code().ean13());
-        bookNumbers.setGenerationDate(Instant.now());
-
-        return Uni.createFrom().item(Response.ok(bookNumbers).build());
+    @APIResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = BookNumberResponse.class)),
+            @Content(mediaType = BookNumberProtobufWriter.APPLICATION_PROTOBUF, schema = @Schema(description = "BookNumbers message of /proto/numbers.proto")) })
+    public Uni<Response> generateBookNumbers(@Context Request request) {
+        Variant variant = request.selectVariant(VARIANTS);
+        MediaType type = variant == null ? MediaType.APPLICATION_JSON_TYPE : variant.getMediaType();
+        return latency.delay().map(ignored -> {
+            BookNumberResponse bookNumbers = allocated() ? generator.generate(allocator.allocate(1)) : generator.generate();
+            return Response.ok(bookNumbers).type(type).build();
+        });
+    }
+
+    @GET
+    @Path("/batch")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(summary = "Generates several book numbers at once", description = "The numbers are streamed as a JSON array, generated as the client consumes them")
+    @APIResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = BookNumberResponse.class, type = SchemaType.ARRAY)))
+    @APIResponse(responseCode = "400", description = "Invalid count")
+    public Multi<BookNumberResponse> generateBookNumbersBatch(
+            @Parameter(description = "How many book numbers to generate") @QueryParam("count") @DefaultValue("10") int count) {
+
+        return batch(count);
+    }
+
+    @GET
+    @Path("/batch")
+    @Produces(BookNumberProtobufWriter.APPLICATION_PROTOBUF)
+    @Operation(summary = "Generates several book numbers at once, as protobuf", description = "A BookNumbersBatch message of /proto/numbers.proto, written once complete")
+    @APIResponse(responseCode = "200", content = @Content(mediaType = BookNumberProtobufWriter.APPLICATION_PROTOBUF, schema = @Schema(description = "BookNumbersBatch message of /proto/numbers.proto")))
+    @APIResponse(responseCode = "400", description = "Invalid count")
+    public Uni<List<BookNumberResponse>> generateBookNumbersBatchProtobuf(
+            @Parameter(description = "How many book numbers to generate") @QueryParam("count") @DefaultValue("10") int count) {
+
+        return batch(count).collect().asList();
+    }
+
+    private Multi<BookNumberResponse> batch(int count) {
+        if (count < 1 || count > maxBatchCount)
+            throw new BadRequestException("count should be between 1 and " + maxBatchCount);
+
+        // One delay for the whole batch, items generated on demand (backpressure)
+        Multi<Integer> indexes = latency.delay()
+                .onItem().transformToMulti(ignored -> Multi.createFrom().range(0, count));
+        if (!allocated()) {
+            return indexes.map(i -> generator.generate());
+        }
+        // The whole batch is leased as one range of sequences
+        long first = allocator.allocate(count);
+        return indexes.map(i -> generator.generate(first + i));
+    }
+
+    private boolean allocated() {
+        return "allocated".equals(isbnMode);
     }
 
 }
@@ -0,0 +1,108 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.number;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IsbnAllocatorTest {
+
+    private static final int BLOCK_SIZE = 100;
+
+    @TempDir
+    Path directory;
+
+    private IsbnAllocator open() {
+        IsbnAllocator allocator = new IsbnAllocator();
+        allocator.file = directory.resolve("isbn-allocator.dat");
+        allocator.blockSize = BLOCK_SIZE;
+        allocator.open();
+        return allocator;
+    }
+
+    @Test
+    void shouldNeverAllocateTwice() {
+        IsbnAllocator allocator = open();
+        Set<Long> sequences = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, 2000).parallel().forEach(i -> {
+            long first = allocator.allocate(3);
+            for (long sequence = first; sequence < first + 3; sequence++) {
+                assertTrue(sequences.add(sequence), "allocated twice: " + sequence);
+            }
+        });
+        allocator.close();
+
+        // Restarted, the allocator goes on above what has been handed out
+        long max = sequences.stream().mapToLong(Long::longValue).max().getAsLong();
+        IsbnAllocator restarted = open();
+        assertTrue(restarted.allocate(1) > max);
+        restarted.close();
+    }
+
+    @Test
+    void shouldRefuseASecondInstance() {
+        IsbnAllocator allocator = open();
+        assertThrows(IllegalStateException.class, this::open);
+        allocator.close();
+
+        // Released on close
+        open().close();
+    }
+
+    @Test
+    void shouldDeriveDistinctIsbns() {
+        BookNumberGenerator generator = new BookNumberGenerator(true);
+        Set<String> isbns = new HashSet<>();
+        long[] sequences = { 0, 1, 9_999_999, 10_000_000, BookNumberGenerator.SEQUENCE_CAPACITY / 2, BookNumberGenerator.SEQUENCE_CAPACITY - 1 };
+        for (long sequence : sequences) {
+            BookNumberResponse numbers = generator.generate(sequence);
+            assertTrue(isbns.add(numbers.getIsbn13()), numbers.getIsbn13());
+            // Same book: ISBN-13 is 978 + the 9 first digits of the ISBN-10 + its own check digit
+            assertEquals(numbers.getIsbn10().substring(0, 11), numbers.getIsbn13().substring(4, 15));
+        }
+        assertEquals("978-0-00-000000-2", generator.generate(0).getIsbn13());
+        assertThrows(IllegalArgumentException.class, () -> generator.generate(BookNumberGenerator.SEQUENCE_CAPACITY));
+    }
+
+    @Test
+    void shouldRecoverFromTornWrite() throws IOException {
+        IsbnAllocator allocator = open();
+        long last = allocator.allocate(1);
+        allocator.close();
+
+        // Next reservation interrupted: generation 3 written in the other slot, not the mark nor the checksum
+        try (FileChannel channel = FileChannel.open(directory.resolve("isbn-allocator.dat"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, 3L), 24);
+        }
+        IsbnAllocator restarted = open();
+        assertEquals(BLOCK_SIZE, restarted.allocate(1));
+        assertTrue(BLOCK_SIZE > last);
+        restarted.close();
+    }
+
+}
@@ -0,0 +1,79 @@
+// Copyright 2021 jefrajames
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package io.jefrajames.bookstore.number;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.ws.rs.ServiceUnavailableException;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyInjectorTest {
+
+    private static LatencyInjector injector(String distribution) {
+        LatencyInjector injector = new LatencyInjector();
+        injector.distributionName = distribution;
+        injector.base = 10;
+        injector.max = 1000;
+        injector.tailPercentile = 0.99;
+        injector.tailDelay = 200;
+        injector.init();
+        return injector;
+    }
+
+    private static long[] sample(LatencyInjector injector) {
+        long[] delays = new long[100_000];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = injector.nextDelay(ThreadLocalRandom.current());
+        }
+        Arrays.sort(delays);
+        return delays;
+    }
+
+    @Test
+    void shouldShapeTheTail() {
+        long[] delays = sample(injector("long-tail"));
+        assertEquals(10, delays[0]);
+        // 99th percentile at the tail delay, give or take the sampling error
+        long p99 = delays[99_000];
+        assertTrue(p99 > 170 && p99 < 230, "p99=" + p99);
+        assertTrue(delays[delays.length - 1] <= 1000);
+    }
+
+    @Test
+    void shouldKeepTheMean() {
+        double mean = Arrays.stream(sample(injector("exponential"))).average().getAsDouble();
+        assertTrue(mean > 8 && mean < 11, "mean=" + mean);
+
+        long[] uniform = sample(injector("uniform"));
+        assertTrue(uniform[0] >= 10 && uniform[uniform.length - 1] <= 1000);
+    }
+
+    @Test
+    void shouldInjectErrors() {
+        LatencyInjector injector = injector("fixed");
+        injector.errorRate = 1;
+        assertThrows(ServiceUnavailableException.class, () -> injector.delay().await().atMost(Duration.ofSeconds(1)));
+
+        injector.errorRate = 0;
+        injector.delay().await().atMost(Duration.ofSeconds(1));
+    }
+
+}
@@ -1,15 +1,29 @@
 package io.jefrajames.bookstore.number;
 
 import static io.restassured.RestAssured.given;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.OK;
+import static org.hamcrest.CoreMatchers.everyItem;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.collection.IsMapContaining.hasKey;
 
+import java.util.List;
+import java.util.Map;
+
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 
+import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Test;
 
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import io.jefrajames.bookstore.proto.BookNumbers;
+import io.jefrajames.bookstore.proto.BookNumbersBatch;
 import io.quarkus.test.junit.QuarkusTest;
 
 @QuarkusTest
@@ -30,5 +44,109 @@ public class NumberResourceTest {
                 .body("$", hasKey("ean_13"))
                 .body("$", not(hasKey("generationDate")));
     }
-    
+
+    @Test
+    void shouldGenerateBookNumbersBatch() {
+        given()
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                .queryParam("count", 5)
+        .when()
+                .get("/api/numbers/book/batch")
+        .then()
+                .statusCode(OK.getStatusCode())
+                .body("$", hasSize(5))
+                .body("$", everyItem(hasKey("isbn_13")));
+    }
+
+    @Test
+    void shouldRejectOversizedBatch() {
+        given()
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                .queryParam("count", 1_000_000)
+        .when()
+                .get("/api/numbers/book/batch")
+        .then()
+                .statusCode(BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    void shouldGenerateValidCheckDigits() {
+        List<Map<String, String>> batch = given()
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                .queryParam("count", 200)
+        .when()
+                .get("/api/numbers/book/batch")
+        .then()
+                .statusCode(OK.getStatusCode())
+                .body("isbn_10", everyItem(matchesPattern("[01]-\\d{2,7}-\\d{1,6}-[\\dX]")))
+                .body("isbn_13", everyItem(matchesPattern("97[89]-[01]-\\d{2,7}-\\d{1,6}-\\d")))
+                .body("asin", everyItem(matchesPattern("B0[0-9A-Z]{8}")))
+                .body("ean_8", everyItem(matchesPattern("\\d{8}")))
+                .body("ean_13", everyItem(matchesPattern("\\d{13}")))
+                .extract().jsonPath().getList("$");
+
+        for (Map<String, String> numbers : batch) {
+            String isbn10 = numbers.get("isbn_10").replace("-", "");
+            int sum = 0;
+            for (int i = 0; i < 10; i++) {
+                sum += (10 - i) * (isbn10.charAt(i) == 'X' ? 10 : isbn10.charAt(i) - '0');
+            }
+            assertEquals(0, sum % 11, isbn10);
+
+            assertEquals(0, gtinSum(numbers.get("isbn_13").replace("-", "")) % 10);
+            assertEquals(0, gtinSum(numbers.get("ean_8")) % 10);
+            assertEquals(0, gtinSum(numbers.get("ean_13")) % 10);
+        }
+    }
+
+    @Test
+    void shouldNegotiateProtobuf() throws InvalidProtocolBufferException {
+        byte[] single = given()
+                .header(HttpHeaders.ACCEPT, BookNumberProtobufWriter.APPLICATION_PROTOBUF)
+        .when()
+                .get("/api/numbers/book")
+        .then()
+                .statusCode(OK.getStatusCode())
+                .header(HttpHeaders.CONTENT_TYPE, BookNumberProtobufWriter.APPLICATION_PROTOBUF)
+                .extract().asByteArray();
+        BookNumbers numbers = BookNumbers.parseFrom(single);
+        assertTrue(numbers.getIsbn13().matches("97[89]-[01]-\\d{2,7}-\\d{1,6}-\\d"), numbers.getIsbn13());
+        assertEquals(13, numbers.getEan13().length());
+
+        byte[] batch = given()
+                .header(HttpHeaders.ACCEPT, BookNumberProtobufWriter.APPLICATION_PROTOBUF)
+                .queryParam("count", 5)
+        .when()
+                .get("/api/numbers/book/batch")
+        .then()
+                .statusCode(OK.getStatusCode())
+                .header(HttpHeaders.CONTENT_TYPE, BookNumberProtobufWriter.APPLICATION_PROTOBUF)
+                .extract().asByteArray();
+        List<BookNumbers> numbersBatch = BookNumbersBatch.parseFrom(batch).getNumbersList();
+        assertEquals(5, numbersBatch.size());
+        for (BookNumbers element : numbersBatch) {
+            assertEquals(10, element.getAsin().length());
+        }
+
+        // JSON remains the default
+        given()
+                .header(HttpHeaders.ACCEPT, "*/*")
+                .queryParam("count", 5)
+        .when()
+                .get("/api/numbers/book/batch")
+        .then()
+                .statusCode(OK.getStatusCode())
+                .header(HttpHeaders.CONTENT_TYPE, Matchers.startsWith(MediaType.APPLICATION_JSON))
+                .body("$", hasSize(5));
+    }
+
+    // Weights 1 and 3 alternate from the check digit, a valid number sums to a multiple of 10
+    private static int gtinSum(String number) {
+        int sum = 0;
+        for (int i = 0; i < number.length(); i++) {
+            sum += ((number.length() - i) % 2 == 0 ? 3 : 1) * (number.charAt(i) - '0');
+        }
+        return sum;
+    }
+
 }